@@ -0,0 +1,81 @@
+package ru.hse.javaprogramming.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.hse.javaprogramming.Gossipers;
+import ru.hse.javaprogramming.NullSink;
+import ru.hse.javaprogramming.PropagationMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full message cascades through layered graphs made of one gossiper type.
+ * Every gossiper of a layer listens to two gossipers of the previous one, the last layer is made of NullGossipers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CascadeBenchmark {
+    @Param({"simple", "spammer", "censor", "deduplicator", "null"})
+    public String type;
+
+    @Param({"dfs", "bfs"})
+    public String engine;
+
+    @Param({"16"})
+    public int width;
+
+    @Param({"4"})
+    public int depth;
+
+    private Gossipers gossipers;
+    private long messageN;
+
+    @Setup
+    public void setUp() {
+        gossipers = new Gossipers(Integer.MAX_VALUE, width * (depth + 1) + 1,
+                PropagationMode.byName(engine), NullSink.INSTANCE);
+
+        gossipers.create("source", type);
+        for (int layer = 0; layer <= depth; layer++) {
+            for (int i = 0; i < width; i++) {
+                gossipers.create(name(layer, i), layer == depth ? "null" : type);
+            }
+        }
+
+        for (int i = 0; i < width; i++) {
+            gossipers.linkOrUnlink("source", name(0, i), true);
+        }
+        for (int layer = 1; layer <= depth; layer++) {
+            for (int i = 0; i < width; i++) {
+                gossipers.linkOrUnlink(name(layer - 1, i), name(layer, i), true);
+                gossipers.linkOrUnlink(name(layer - 1, (i + 1) % width), name(layer, i), true);
+            }
+        }
+    }
+
+    private static String name(int layer, int i) {
+        return "gossiper" + layer + "_" + i;
+    }
+
+    /**
+     * Every message is new, so deduplicators spread it too.
+     * Every message mentions java, so censors spread it too.
+     */
+    @Benchmark
+    public void message() {
+        gossipers.message("source", "java gossip " + messageN++);
+    }
+}
@@ -0,0 +1,86 @@
+package ru.hse.javaprogramming.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.hse.javaprogramming.Gossipers;
+import ru.hse.javaprogramming.NullSink;
+import ru.hse.javaprogramming.PropagationMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gossiper.addListener cycle checks on chains, trees and dense DAGs.
+ * "first" is the source of the graph and "last" is the gossiper added last, deep inside it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkBenchmark {
+    @Param({"chain", "tree", "dag"})
+    public String shape;
+
+    @Param({"1000"})
+    public int size;
+
+    private Gossipers gossipers;
+    private String first;
+    private String last;
+
+    @Setup
+    public void setUp() {
+        gossipers = new Gossipers(1, size + 1, PropagationMode.DEPTH_FIRST, NullSink.INSTANCE);
+
+        for (int i = 0; i < size; i++) {
+            gossipers.create(name(i), "simple");
+        }
+
+        for (int i = 1; i < size; i++) {
+            switch (shape) {
+                case "chain" -> gossipers.linkOrUnlink(name(i - 1), name(i), true);
+                case "tree" -> gossipers.linkOrUnlink(name((i - 1) / 2), name(i), true);
+                case "dag" -> {
+                    for (int j = Math.max(0, i - 8); j < i; j++) {
+                        gossipers.linkOrUnlink(name(j), name(i), true);
+                    }
+                }
+                default -> throw new IllegalArgumentException(shape);
+            }
+        }
+
+        first = name(0);
+        last = name(size - 1);
+    }
+
+    private static String name(int i) {
+        return "gossiper" + i;
+    }
+
+    /**
+     * The link closes a cycle through the whole graph and is rejected.
+     */
+    @Benchmark
+    public void linkRejected() {
+        gossipers.linkOrUnlink(last, first, true);
+    }
+
+    /**
+     * The link goes along the order, it's accepted and then removed.
+     */
+    @Benchmark
+    public void linkAccepted() {
+        gossipers.linkOrUnlink(first, last, true);
+        gossipers.linkOrUnlink(first, last, false);
+    }
+}
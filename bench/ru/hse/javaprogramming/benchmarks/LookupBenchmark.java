@@ -0,0 +1,63 @@
+package ru.hse.javaprogramming.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.hse.javaprogramming.Gossiper;
+import ru.hse.javaprogramming.Gossipers;
+import ru.hse.javaprogramming.NullSink;
+import ru.hse.javaprogramming.PropagationMode;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gossipers.create and Gossipers.findByName at different population sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    @Param({"100", "10000", "1000000"})
+    public int population;
+
+    private Gossipers gossipers;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        gossipers = new Gossipers(1, population + 1, PropagationMode.DEPTH_FIRST, NullSink.INSTANCE);
+        names = new String[population];
+
+        for (int i = 0; i < population; i++) {
+            names[i] = "gossiper" + i;
+            gossipers.create(names[i], "simple");
+        }
+    }
+
+    @Benchmark
+    public Gossiper findByName() {
+        next = (next + 7919) % population;
+        return gossipers.findByName(names[next]);
+    }
+
+    /**
+     * Creates one more gossiper and removes her, so the population stays the same.
+     */
+    @Benchmark
+    public void createAndRemove() {
+        gossipers.create("extra", "simple");
+        gossipers.remove("extra");
+    }
+}
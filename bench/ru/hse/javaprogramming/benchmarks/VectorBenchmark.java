@@ -0,0 +1,93 @@
+package ru.hse.javaprogramming.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.hse.javaprogramming.Gossipers;
+import ru.hse.javaprogramming.Message;
+import ru.hse.javaprogramming.NullSink;
+import ru.hse.javaprogramming.PropagationMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A batch of messages sent with one messageAll call, spread as vectors, against the same messages sent one by one.
+ * The graph is a chain of gossipers of one type ending with a NullGossiper, the batch starts at the head.
+ * Every other message mentions java, and every message is repeated once, so censors and deduplicators both
+ * drop half of what they get. Deduplicators remember the last 4096 messages, so their stores don't grow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+    @Param({"simple", "censor", "deduplicator"})
+    public String type;
+
+    @Param({"dfs"})
+    public String engine;
+
+    @Param({"256"})
+    public int batch;
+
+    @Param({"8"})
+    public int length;
+
+    private Gossipers gossipers;
+    private long messageN;
+
+    @Setup
+    public void setUp() {
+        gossipers = new Gossipers(Integer.MAX_VALUE, length + 1, PropagationMode.byName(engine), NullSink.INSTANCE);
+
+        Map<String, String> params = type.equals("deduplicator")
+                ? Map.of("store", "lru", "capacity", "4096") : Map.of();
+        for (int i = 0; i < length; i++) {
+            gossipers.create(name(i), type, params);
+        }
+        gossipers.create(name(length), "null");
+
+        for (int i = 0; i < length; i++) {
+            gossipers.linkOrUnlink(name(i), name(i + 1), true);
+        }
+    }
+
+    private static String name(int i) {
+        return "gossiper" + i;
+    }
+
+    private List<Message> nextBatch() {
+        List<Message> messages = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i += 2) {
+            String text = (i % 4 == 0 ? "java gossip " : "gossip ") + messageN++;
+            messages.add(new Message(name(0), text));
+            messages.add(new Message(name(0), text));
+        }
+        return messages;
+    }
+
+    @Benchmark
+    public void vector() {
+        gossipers.messageAll(nextBatch());
+    }
+
+    @Benchmark
+    public void oneByOne() {
+        for (Message message : nextBatch()) {
+            gossipers.message(message.gossiper(), message.text());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+
+/**
+ * BloomDedupStore keeps a Bloom filter of the messages: a few bits per message.
+ * A new message is mistaken for a known one with the configured probability,
+ * as long as no more than the expected amount of messages is added.
+ */
+public class BloomDedupStore implements DedupStore {
+    /**
+     * The most bits a filter may have: 256 MiB, enough for about 200 million messages at fpp = 0.01.
+     */
+    static final long MAX_BITS = 1L << 31;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private long size = 0;
+
+    /**
+     * Constructor from the expected amount of messages and false positive rate
+     * @param expected expected amount of messages
+     * @param fpp probability to drop a new message as a duplicate, in (0; 1)
+     * @throws IllegalArgumentException if a parameter is out of range or the filter would take more than {@link #MAX_BITS}
+     */
+    public BloomDedupStore(long expected, double fpp) {
+        if (expected < 1) {
+            throw new IllegalArgumentException("expected must be positive");
+        }
+        if (!(fpp > 0 && fpp < 1)) {
+            throw new IllegalArgumentException("fpp must be between 0 and 1");
+        }
+
+        long m = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        if (m > MAX_BITS) {
+            throw new IllegalArgumentException("expected is too large");
+        }
+
+        this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+    }
+
+    @Override
+    public synchronized boolean add(Gossip gossip) {
+        long h1 = gossip.hash();
+        long h2 = MessageHash.mix(h1) | 1;
+        boolean isNew = false;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                isNew = true;
+            }
+        }
+
+        if (isNew) {
+            ++size;
+        }
+        return isNew;
+    }
+
+    @Override
+    public synchronized boolean contains(Gossip gossip) {
+        long h1 = gossip.hash();
+        long h2 = MessageHash.mix(h1) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void write(SnapshotOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLongs(bits);
+    }
+
+    @Override
+    public synchronized void read(SnapshotInput in) throws IOException {
+        long savedSize = in.readLong();
+        long[] savedBits = in.readLongs();
+        if (savedBits.length != bits.length) {
+            throw new IOException("snapshot is corrupted: bloom filter size differs");
+        }
+
+        size = savedSize;
+        System.arraycopy(savedBits, 0, bits, 0, bits.length);
+    }
+}
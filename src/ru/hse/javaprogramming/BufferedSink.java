@@ -0,0 +1,70 @@
+package ru.hse.javaprogramming;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * BufferedSink collects the output in a large buffer and writes it out in batches,
+ * instead of one console write per line.
+ */
+public class BufferedSink implements OutputSink {
+    /**
+     * Default buffer size in chars.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final PrintWriter writer;
+
+    /**
+     * Constructor from output stream with the default buffer size
+     * @param out stream to write to
+     */
+    public BufferedSink(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor from output stream and buffer size
+     * @param out stream to write to
+     * @param bufferSize buffer size in chars
+     */
+    public BufferedSink(OutputStream out, int bufferSize) {
+        this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), bufferSize), false);
+    }
+
+    @Override
+    public synchronized void print(String text) {
+        writer.print(text);
+    }
+
+    @Override
+    public synchronized void println(String line) {
+        writer.println(line);
+    }
+
+    /**
+     * Writes the parts of the line one by one, so no temporary string is built.
+     */
+    @Override
+    public synchronized void message(String name, int messageNumber, String gossipMessage) {
+        writer.print(name);
+        writer.print(", message number = ");
+        writer.print(messageNumber);
+        writer.print(", message: \"");
+        writer.print(gossipMessage);
+        writer.println('"');
+    }
+
+    @Override
+    public synchronized void tired(String name) {
+        writer.print(name);
+        writer.println(" is tired");
+    }
+
+    @Override
+    public synchronized void flush() {
+        writer.flush();
+    }
+}
@@ -0,0 +1,66 @@
+package ru.hse.javaprogramming;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gossiper types that come with the app.
+ */
+public enum BuiltinTypes implements GossiperFactory {
+    NULL("null") {
+        @Override
+        public Gossiper create(String name, int maxMoves, Map<String, String> params) {
+            return new NullGossiper(name, maxMoves);
+        }
+    },
+    CENSOR("censor") {
+        @Override
+        public Set<String> parameters() {
+            return CensorGossiper.PARAMETERS;
+        }
+
+        @Override
+        public Gossiper create(String name, int maxMoves, Map<String, String> params) {
+            return CensorGossiper.create(name, maxMoves, params);
+        }
+    },
+    SPAMMER("spammer") {
+        @Override
+        public Set<String> parameters() {
+            return SpammerGossiper.PARAMETERS;
+        }
+
+        @Override
+        public Gossiper create(String name, int maxMoves, Map<String, String> params) {
+            return SpammerGossiper.create(name, maxMoves, params);
+        }
+    },
+    SIMPLE("simple") {
+        @Override
+        public Gossiper create(String name, int maxMoves, Map<String, String> params) {
+            return new SimpleGossiper(name, maxMoves);
+        }
+    },
+    DEDUPLICATOR("deduplicator") {
+        @Override
+        public Set<String> parameters() {
+            return DedupStores.PARAMETERS;
+        }
+
+        @Override
+        public Gossiper create(String name, int maxMoves, Map<String, String> params) {
+            return new DeduplicatorGossiper(name, maxMoves, DedupStores.create(params));
+        }
+    };
+
+    private final String type;
+
+    BuiltinTypes(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public String type() {
+        return type;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.hse.javaprogramming;
+
+/**
+ * CascadeEstimate predicts the cost of a message without sending it.
+ * <p>
+ * The gossipers reachable from the target are visited once each in topological order, taken from the cached
+ * {@link PropagationPlan} of the target, so the estimate costs as much as the plan and not as the whole graph.
+ * Every gossiper
+ * knows the bounds of the copies it receives before it passes them on (no gossiper is walked twice,
+ * unlike a real cascade that goes through a gossiper once per copy). A gossiper handles at most the copies
+ * its remaining moves or its dedup store allow, see {@link Gossiper#acceptedCopies(Gossip, long)},
+ * and sends from {@link Gossiper#minCopies(Gossip)} to {@link Gossiper#maxCopies(Gossip)} copies
+ * to every listener per handled gossip: one for simple, none for null or a censored gossip, min to max for spammer.
+ * Sums saturate at {@link Long#MAX_VALUE}.
+ *
+ * @param reach gossipers that may receive the message
+ * @param minDeliveries the least amount of gossips received in the cascade
+ * @param maxDeliveries the greatest amount of gossips received in the cascade
+ */
+public record CascadeEstimate(int reach, long minDeliveries, long maxDeliveries) {
+    /**
+     * Estimates a message sent to the target.
+     * @param network network of the target
+     * @param target gossiper the message is sent to
+     * @param gossip the message
+     * @return bounds of the cascade
+     */
+    public static CascadeEstimate of(Gossipers network, Gossiper target, Gossip gossip) {
+        PropagationPlan plan = network.graph.plan(target);
+        int[] targets = plan.targets();
+
+        // gossipers behind the ones that don't pass the gossip on receive nothing and aren't counted in the reach
+        long[] minReceived = new long[plan.size()];
+        long[] maxReceived = new long[plan.size()];
+        minReceived[targets[plan.sourceStart()]] = 1;
+        maxReceived[targets[plan.sourceStart()]] = 1;
+
+        for (int node = 0; node < plan.size(); node++) {
+            Gossiper gossiper = plan.node(node);
+            int maxCopies = gossiper.maxCopies(gossip);
+            if (maxCopies == 0 || maxReceived[node] == 0) {
+                continue;
+            }
+            long minSent = multiply(gossiper.acceptedCopies(gossip, minReceived[node]), gossiper.minCopies(gossip));
+            long maxSent = multiply(gossiper.acceptedCopies(gossip, maxReceived[node]), maxCopies);
+
+            for (int i = plan.listenersStart(node); i < plan.listenersEnd(node); i++) {
+                minReceived[targets[i]] = add(minReceived[targets[i]], minSent);
+                maxReceived[targets[i]] = add(maxReceived[targets[i]], maxSent);
+            }
+        }
+
+        // null gossipers may be placed anywhere in the order, so they are only counted in the end
+        long minTotal = 0;
+        long maxTotal = 0;
+        int reach = 0;
+        for (int node = 0; node < plan.size(); node++) {
+            minTotal = add(minTotal, minReceived[node]);
+            maxTotal = add(maxTotal, maxReceived[node]);
+            if (maxReceived[node] > 0) {
+                ++reach;
+            }
+        }
+
+        return new CascadeEstimate(reach, minTotal, maxTotal);
+    }
+
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private static long multiply(long a, long b) {
+        long high = Math.multiplyHigh(a, b);
+        long low = a * b;
+        return high != 0 || low < 0 ? Long.MAX_VALUE : low;
+    }
+}
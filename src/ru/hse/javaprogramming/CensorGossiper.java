@@ -1,24 +1,127 @@
 package ru.hse.javaprogramming;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * CensorGossiper writes all the received messages, but passes only messages containing word "java".
+ * CensorGossiper writes all the received messages, but passes only messages containing an allowed keyword
+ * ("java" by default) and no denied keywords.
  */
 public class CensorGossiper extends Gossiper {
+    /**
+     * Parameters of the censor type.
+     */
+    static final Set<String> PARAMETERS = Set.of("allow", "deny");
+
+    /**
+     * Keywords one of which must be in a message to pass it.
+     */
+    private final KeywordMatcher allowed;
+
+    /**
+     * Keywords none of which may be in a message to pass it.
+     */
+    private final KeywordMatcher denied;
 
     public CensorGossiper(String name, int maxMoves) {
+        this(name, maxMoves, KeywordMatcher.compile(List.of("java")), KeywordMatcher.EMPTY);
+    }
+
+    /**
+     * Constructor from name, maxMoves and keyword lists
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param allowed keywords one of which must be in a message to pass it
+     * @param denied keywords none of which may be in a message to pass it
+     */
+    public CensorGossiper(String name, int maxMoves, KeywordMatcher allowed, KeywordMatcher denied) {
         super(name, maxMoves);
+        this.allowed = allowed;
+        this.denied = denied;
+    }
+
+    /**
+     * Creates a censor from the parameters of the create command:
+     * allow = comma-separated allowed keywords ("java" by default),
+     * deny = comma-separated denied keywords (none by default).
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param params type parameters
+     * @return new censor
+     * @throws IllegalArgumentException if a parameter is unknown
+     */
+    public static CensorGossiper create(String name, int maxMoves, Map<String, String> params) {
+        for (String key : params.keySet()) {
+            if (!PARAMETERS.contains(key)) {
+                throw new IllegalArgumentException("unknown parameter \"" + key + "\"");
+            }
+        }
+
+        return new CensorGossiper(name, maxMoves,
+                KeywordMatcher.compile(Arrays.asList(params.getOrDefault("allow", "java").split(","))),
+                KeywordMatcher.compile(Arrays.asList(params.getOrDefault("deny", "").split(","))));
     }
 
     /**
      * Prints name, number of a gossip, gossip message.
-     * Only spreads gossips that contain "Java" in any case
+     * Only spreads gossips that contain an allowed keyword and no denied ones, in any case
      */
     @Override
-    public void doGossipAction(String gossipMessage) {
-        printMessage(gossipMessage);
-        if (gossipMessage.toLowerCase().contains("java")) {
-            sendMessage(gossipMessage);
+    public void doGossipAction(Gossip gossip) {
+        printMessage(gossip);
+        if (passes(gossip)) {
+            sendMessage(gossip);
+        } else {
+            count(stats.censored);
+            publish(GossipEvent.Type.CENSORED, gossip);
+        }
+    }
+
+    /**
+     * Filters the whole vector, then spreads the gossips that passed with one bulk send.
+     * The messages are printed in the order of the vector, and tiredness is settled after every gossip
+     * as in {@link #getGossipMessage(Gossip)}.
+     */
+    @Override
+    public void getGossipMessages(Gossip[] gossips) {
+        Gossip[] passed = new Gossip[gossips.length];
+        int count = 0;
+
+        for (Gossip gossip : gossips) {
+            count(stats.received);
+            if (!takeMove()) {
+                count(stats.tired);
+                publish(GossipEvent.Type.TIRED, gossip);
+            } else {
+                printMessage(gossip);
+                if (passes(gossip)) {
+                    passed[count++] = gossip;
+                } else {
+                    count(stats.censored);
+                    publish(GossipEvent.Type.CENSORED, gossip);
+                }
+            }
+
+            propagator().settle(this);
         }
+
+        sendMessages(passed, count);
+    }
+
+    private boolean passes(Gossip gossip) {
+        return gossip.matches(allowed) && !gossip.matches(denied);
+    }
+
+    @Override
+    protected int minCopies(Gossip gossip) {
+        return maxCopies(gossip);
+    }
+
+    @Override
+    protected int maxCopies(Gossip gossip) {
+        return passes(gossip) ? 1 : 0;
     }
 
 }
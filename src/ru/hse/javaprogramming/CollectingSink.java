@@ -0,0 +1,48 @@
+package ru.hse.javaprogramming;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CollectingSink keeps the printed lines in memory, so they can be checked in tests.
+ */
+public class CollectingSink implements OutputSink {
+    private final List<String> lines = new ArrayList<>();
+
+    /**
+     * Text printed after the last line break.
+     */
+    private final StringBuilder current = new StringBuilder();
+
+    @Override
+    public synchronized void print(String text) {
+        current.append(text);
+    }
+
+    @Override
+    public synchronized void println(String line) {
+        current.append(line);
+        lines.add(current.toString());
+        current.setLength(0);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Lines printed so far
+     * @return copy of the printed lines, without the unfinished one
+     */
+    public synchronized List<String> lines() {
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * Forgets all the printed text.
+     */
+    public synchronized void clear() {
+        lines.clear();
+        current.setLength(0);
+    }
+}
@@ -0,0 +1,54 @@
+package ru.hse.javaprogramming;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CommandTokenizer splits command lines the same way as {@link GossipsMain#parseCommand(String)},
+ * but reuses its buffers: only the resulting tokens are allocated.
+ * Not thread-safe, every reader needs its own tokenizer.
+ */
+public class CommandTokenizer {
+    /**
+     * Chars of the line without quotes.
+     */
+    private char[] chars = new char[256];
+
+    /**
+     * Tokens of the last line, reused between lines.
+     */
+    private final List<String> tokens = new ArrayList<>();
+
+    /**
+     * Splits the line by spaces, spaces inside the quotes don't split, quotes are removed.
+     * @param line line to split
+     * @return tokens of the line, valid until the next call
+     */
+    public List<String> tokenize(CharSequence line) {
+        int length = line.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        tokens.clear();
+        int start = 0;
+        int end = 0;
+        boolean inQuotes = false;
+
+        for (int cur = 0; cur < length; cur++) {
+            char c = line.charAt(cur);
+
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ' ' && !inQuotes) {
+                tokens.add(new String(chars, start, end - start));
+                start = end;
+            } else {
+                chars[end++] = c;
+            }
+        }
+
+        tokens.add(new String(chars, start, end - start));
+        return tokens;
+    }
+}
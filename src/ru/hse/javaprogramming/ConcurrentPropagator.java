@@ -0,0 +1,239 @@
+package ru.hse.javaprogramming;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentPropagator gives every gossiper its own mailbox, mailboxes are processed on an executor.
+ * One gossiper handles its gossips one by one, different gossipers work in parallel.
+ * The order of delivered messages between different gossipers is not defined.
+ */
+public class ConcurrentPropagator implements Propagator {
+    /**
+     * How many gossips a mailbox handles before giving its thread to other mailboxes.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * All the deliveries caused by one injected gossip.
+     * Completes when there is nothing left to deliver.
+     */
+    private static final class Cascade {
+        private final AtomicLong pending = new AtomicLong();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * Metrics to count the cascade to, null if they were off when the cascade started.
+         */
+        private final Metrics metrics;
+        private final LongAdder size;
+        private final LongAccumulator depth;
+
+        private Cascade(Metrics metrics) {
+            this.metrics = metrics.isEnabled() ? metrics : null;
+            this.size = this.metrics == null ? null : new LongAdder();
+            this.depth = this.metrics == null ? null : new LongAccumulator(Math::max, 0);
+        }
+
+        private void started() {
+            pending.incrementAndGet();
+        }
+
+        private void delivered(int depth) {
+            if (metrics != null) {
+                size.increment();
+                this.depth.accumulate(depth);
+            }
+        }
+
+        private void finished() {
+            if (pending.decrementAndGet() == 0) {
+                if (metrics != null) {
+                    metrics.cascade(size.sum(), (int) depth.get());
+                }
+                done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * A gossip waiting in a mailbox, depth is the amount of deliveries from the target to the mailbox,
+     * times is the amount of copies to deliver.
+     */
+    private record Delivery(Cascade cascade, Gossip gossip, int depth, int times) {
+    }
+
+    /**
+     * Mailbox of one gossiper. Scheduled on the executor only while it has gossips.
+     */
+    private final class Mailbox implements Runnable {
+        private final Gossiper gossiper;
+        private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Mailbox(Gossiper gossiper) {
+            this.gossiper = gossiper;
+        }
+
+        private void post(Delivery delivery) {
+            delivery.cascade.started();
+            deliveries.add(delivery);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Delivery delivery = deliveries.poll();
+                if (delivery == null) {
+                    break;
+                }
+
+                current.set(delivery);
+                try {
+                    for (int j = 0; j < delivery.times; j++) {
+                        delivery.cascade.delivered(delivery.depth);
+                        gossiper.getGossipMessage(delivery.gossip);
+                    }
+                } catch (RuntimeException e) {
+                    delivery.cascade.done.completeExceptionally(e);
+                } finally {
+                    current.remove();
+                    delivery.cascade.finished();
+                }
+            }
+
+            scheduled.set(false);
+            if (!deliveries.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Executor that runs the mailboxes.
+     */
+    private final Executor executor;
+
+    /**
+     * True if the executor was created by the propagator and is shut down by {@link #close()}.
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * Mailboxes of the gossipers, created on the first delivery.
+     */
+    private final Map<Gossiper, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Delivery being handled by the current thread.
+     */
+    private final ThreadLocal<Delivery> current = new ThreadLocal<>();
+
+    /**
+     * Constructor with a fork-join executor using all the cores, shut down by {@link #close()}.
+     */
+    public ConcurrentPropagator() {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true), true);
+    }
+
+    /**
+     * Constructor from executor
+     * @param executor executor that runs the mailboxes, {@link #close()} leaves it running
+     */
+    public ConcurrentPropagator(Executor executor) {
+        this(executor, false);
+    }
+
+    private ConcurrentPropagator(Executor executor, boolean ownsExecutor) {
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    private Mailbox mailbox(Gossiper gossiper) {
+        return mailboxes.computeIfAbsent(gossiper, Mailbox::new);
+    }
+
+    @Override
+    public void propagate(Gossiper target, Gossip gossip) {
+        submit(target, gossip).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(Gossiper target, Gossip gossip) {
+        Cascade cascade = new Cascade(target.metrics());
+        mailbox(target).post(new Delivery(cascade, gossip, 0, 1));
+        return cascade.done;
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip) {
+        send(from, gossip, 1);
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip, int times) {
+        Delivery delivery = current.get();
+        if (delivery == null) {
+            throw new IllegalStateException("gossips can only be sent while handling a delivery");
+        }
+
+        Graph graph = from.graph();
+        int[] listeners = graph.listenerIds(from);
+        int count = graph.listenerCount(from);
+
+        for (int i = 0; i < count && times > 0; i++) {
+            mailbox(graph.node(listeners[i])).post(new Delivery(delivery.cascade, gossip, delivery.depth + 1, times));
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    @Override
+    public void settle(Gossiper gossiper) {
+        gossiper.checkTired();
+    }
+
+    /**
+     * Drops the mailbox of the gossiper, the gossips already in it are still delivered.
+     */
+    @Override
+    public void forget(Gossiper gossiper) {
+        mailboxes.remove(gossiper);
+    }
+
+    @Override
+    public void forgetAll() {
+        mailboxes.clear();
+    }
+
+    /**
+     * Shuts down the executor if the propagator created it, the deliveries already posted still run.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+
+/**
+ * DedupStore remembers the messages a {@link DeduplicatorGossiper} has already seen.
+ * Implementations must be thread-safe.
+ */
+public interface DedupStore {
+    /**
+     * Remembers the gossip.
+     * @param gossip received gossip
+     * @return true if the gossip is new, false if the same text was seen before
+     */
+    boolean add(Gossip gossip);
+
+    /**
+     * Checks if the gossip would be dropped as a duplicate, without remembering it.
+     * @param gossip gossip to check
+     * @return true if the same text was seen before
+     */
+    boolean contains(Gossip gossip);
+
+    /**
+     * Amount of remembered messages
+     * @return amount of remembered messages, approximate for probabilistic stores
+     */
+    long size();
+
+    /**
+     * Writes the remembered messages to a snapshot.
+     * @param out snapshot output
+     * @throws IOException if the snapshot can't be written
+     */
+    void write(SnapshotOutput out) throws IOException;
+
+    /**
+     * Reads the messages written by {@link #write(SnapshotOutput)} into an empty store created with the same parameters.
+     * @param in snapshot input
+     * @throws IOException if the snapshot is corrupted
+     */
+    void read(SnapshotInput in) throws IOException;
+}
@@ -0,0 +1,49 @@
+package ru.hse.javaprogramming;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates dedup stores from the parameters of the create command.
+ * Parameters:
+ * store = strings (default) | hash64 | hash128 | lru | bloom
+ * capacity = the maximum amount of messages remembered by lru (100000 by default)
+ * window = how long lru remembers a message in milliseconds (0 = until evicted, by default)
+ * expected = expected amount of messages for bloom (1000000 by default)
+ * fpp = false positive rate of bloom (0.01 by default)
+ */
+public final class DedupStores {
+    static final Set<String> PARAMETERS = Set.of("store", "capacity", "window", "expected", "fpp");
+
+    private DedupStores() {
+    }
+
+    /**
+     * Creates a dedup store
+     * @param params parameters of the store
+     * @return new store
+     * @throws IllegalArgumentException if a parameter is unknown or has a wrong value
+     */
+    public static DedupStore create(Map<String, String> params) {
+        for (String key : params.keySet()) {
+            if (!PARAMETERS.contains(key)) {
+                throw new IllegalArgumentException("unknown parameter \"" + key + "\"");
+            }
+        }
+
+        try {
+            return switch (params.getOrDefault("store", "strings")) {
+                case "strings" -> new StringDedupStore();
+                case "hash64" -> new HashedDedupStore(64);
+                case "hash128" -> new HashedDedupStore(128);
+                case "lru" -> new LruDedupStore(Integer.parseInt(params.getOrDefault("capacity", "100000")),
+                        Long.parseLong(params.getOrDefault("window", "0")));
+                case "bloom" -> new BloomDedupStore(Long.parseLong(params.getOrDefault("expected", "1000000")),
+                        Double.parseDouble(params.getOrDefault("fpp", "0.01")));
+                default -> throw new IllegalArgumentException("unknown store \"" + params.get("store") + "\"");
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("wrong number: " + e.getMessage());
+        }
+    }
+}
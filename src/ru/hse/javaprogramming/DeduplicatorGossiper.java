@@ -1,41 +1,98 @@
 package ru.hse.javaprogramming;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
 
 /**
  * DeduplicatorGossiper only sends and receives messages that weren't received before.
  */
 public class DeduplicatorGossiper extends Gossiper {
     /**
-     * A set containing only unique messages.
+     * A store of the messages seen before.
      */
-    protected Set<String> gossipMessages = new HashSet<>();
+    protected final DedupStore gossipMessages;
 
     public DeduplicatorGossiper(String name, int maxMoves) {
+        this(name, maxMoves, new StringDedupStore());
+    }
+
+    /**
+     * Constructor from name, maxMoves and the store of seen messages
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param gossipMessages store of the seen messages, see {@link DedupStores}
+     */
+    public DeduplicatorGossiper(String name, int maxMoves, DedupStore gossipMessages) {
         super(name, maxMoves);
+        this.gossipMessages = gossipMessages;
     }
 
     /**
      * Remembers the gossip and only prints and spreads it if it weren't known before.
-     * @param gossipMessage contains the text of a gossip message.
+     * @param gossip received gossip.
+     */
+    @Override
+    public void getGossipMessage(Gossip gossip) {
+        count(stats.received);
+
+        if (gossipMessages.add(gossip)) {
+            currentMessageN.incrementAndGet();
+            doGossipAction(gossip);
+        } else {
+            count(stats.duplicates);
+            publish(GossipEvent.Type.DEDUPLICATED, gossip);
+        }
+    }
+
+    /**
+     * Drops the known gossips of the whole vector, then spreads the new ones with one bulk send.
+     * @param gossips received gossips.
      */
     @Override
-    public void getGossipMessage(String gossipMessage) {
-        if (gossipMessages.add(gossipMessage)) {
-            ++currentMessageN;
-            doGossipAction(gossipMessage);
+    public void getGossipMessages(Gossip[] gossips) {
+        Gossip[] fresh = new Gossip[gossips.length];
+        int count = 0;
+
+        for (Gossip gossip : gossips) {
+            count(stats.received);
+            if (gossipMessages.add(gossip)) {
+                currentMessageN.incrementAndGet();
+                printMessage(gossip);
+                fresh[count++] = gossip;
+            } else {
+                count(stats.duplicates);
+                publish(GossipEvent.Type.DEDUPLICATED, gossip);
+            }
         }
+
+        sendMessages(fresh, count);
+    }
+
+    /**
+     * Only the first copy of an unknown gossip is handled, maxMoves doesn't limit a deduplicator.
+     */
+    @Override
+    protected long acceptedCopies(Gossip gossip, long received) {
+        return received > 0 && !gossipMessages.contains(gossip) ? 1 : 0;
+    }
+
+    @Override
+    protected void writeState(SnapshotOutput out) throws IOException {
+        gossipMessages.write(out);
+    }
+
+    @Override
+    protected void readState(SnapshotInput in) throws IOException {
+        gossipMessages.read(in);
     }
 
     /**
      * Prints and spreads the gossips that weren't encountered before.
-     * @param gossipMessage contains the text of a gossip message.
+     * @param gossip received gossip.
      */
     @Override
-    public void doGossipAction(String gossipMessage) {
-        printMessage(gossipMessage);
-        sendMessage(gossipMessage);
+    public void doGossipAction(Gossip gossip) {
+        printMessage(gossip);
+        sendMessage(gossip);
     }
 
 }
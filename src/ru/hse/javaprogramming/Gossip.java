@@ -0,0 +1,122 @@
+package ru.hse.javaprogramming;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gossip is a message wrapped once when it enters the network and shared by every hop.
+ * Values derived from the text are computed at most once per gossip, not once per gossiper.
+ */
+public final class Gossip {
+    private static final long SEED = 0x9e3779b97f4a7c15L;
+    private static final long SECOND_SEED = 0x632be59bd9b4e019L;
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final long id;
+    private final String text;
+    private final long hash;
+
+    /**
+     * Second independent hash, 0 until computed.
+     */
+    private long secondHash;
+
+    /**
+     * How many keyword search results a gossip remembers, the oldest is replaced by a new one.
+     */
+    private static final int REMEMBERED_MATCHES = 4;
+
+    /**
+     * Results of the last keyword searches, null until the first search. Results are immutable and shared,
+     * threads racing on the array at worst search the text again, the results never differ.
+     */
+    private KeywordMatcher.Result[] matches;
+    private int nextMatch;
+
+    /**
+     * Constructor from the text of a gossip message
+     * @param text text of the message
+     */
+    public Gossip(String text) {
+        this.id = nextId.incrementAndGet();
+        this.text = text;
+        this.hash = MessageHash.hash(text, SEED);
+    }
+
+    /**
+     * Unique id of the gossip in this JVM
+     * @return id of the gossip
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * Text getter
+     * @return text of the message
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * 64-bit hash of the text
+     * @return hash of the text
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Another 64-bit hash of the text, independent of {@link #hash()}.
+     * Computed on the first call.
+     * @return second hash of the text
+     */
+    public long secondHash() {
+        long h = secondHash;
+        if (h == 0) {
+            h = MessageHash.hash(text, SECOND_SEED);
+            secondHash = h;
+        }
+
+        return h;
+    }
+
+    /**
+     * Check if the text contains a keyword of the matcher.
+     * The results of the last few matchers are remembered, so a matcher searches the text once per gossip,
+     * however many censors use it, unless the gossip meets many different matchers. A matcher without keywords
+     * never searches.
+     * @param matcher keywords to search for
+     * @return true if a keyword is found
+     */
+    public boolean matches(KeywordMatcher matcher) {
+        if (matcher.isEmpty()) {
+            return false;
+        }
+
+        KeywordMatcher.Result[] results = matches;
+        if (results != null) {
+            for (KeywordMatcher.Result result : results) {
+                if (result != null && result.matcher() == matcher) {
+                    return result.found();
+                }
+            }
+        } else {
+            results = new KeywordMatcher.Result[REMEMBERED_MATCHES];
+            matches = results;
+        }
+
+        boolean found = matcher.matches(text);
+        int slot = nextMatch;
+        nextMatch = (slot + 1) % REMEMBERED_MATCHES;
+        results[slot] = matcher.result(found);
+
+        return found;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
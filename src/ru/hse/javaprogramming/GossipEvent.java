@@ -0,0 +1,41 @@
+package ru.hse.javaprogramming;
+
+/**
+ * GossipEvent is one thing that happened to a gossip at a gossiper, published by {@link GossipEvents}.
+ * @param type what happened
+ * @param gossiper name of the gossiper
+ * @param gossipId id of the gossip, see {@link Gossip#id()}
+ * @param message text of the gossip
+ * @param messageNumber amount of gossips the gossiper has received when the event happened
+ */
+public record GossipEvent(Type type, String gossiper, long gossipId, String message, int messageNumber) {
+    /**
+     * Kinds of events.
+     */
+    public enum Type {
+        /**
+         * The gossiper accepted the gossip and printed it.
+         */
+        DELIVERED,
+
+        /**
+         * The gossiper sent the gossip to its listeners.
+         */
+        FORWARDED,
+
+        /**
+         * A censor gossiper got a gossip with a forbidden word and kept it to itself.
+         */
+        CENSORED,
+
+        /**
+         * A deduplicator gossiper got a gossip it already knew and dropped it.
+         */
+        DEDUPLICATED,
+
+        /**
+         * The gossiper got a gossip after it had become tired and dropped it.
+         */
+        TIRED
+    }
+}
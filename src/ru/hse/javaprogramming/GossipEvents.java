@@ -0,0 +1,332 @@
+package ru.hse.javaprogramming;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * GossipEvents publishes the {@link GossipEvent}s of a network to its subscribers.
+ * <p>
+ * Every subscriber has its own filter and its own bounded buffer, events are delivered on an executor
+ * as the subscriber requests them. Publishing never waits for a subscriber: when the buffer of a subscriber
+ * is full, its next events are dropped and counted, see {@link EventSubscription#dropped()}.
+ * Events of one gossiper reach a subscriber in the order they happened; the order of events of different
+ * gossipers is the order of the propagation, which is not defined for the concurrent propagation mode.
+ * Without subscribers publishing costs one volatile read.
+ */
+public class GossipEvents implements Flow.Publisher<GossipEvent> {
+    /**
+     * Default amount of events buffered for one subscriber.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    /**
+     * How many events a subscription delivers before giving its thread to other subscriptions.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private static final EventSubscription[] NONE = new EventSubscription[0];
+
+    private final Executor executor;
+
+    /**
+     * Current subscriptions, replaced on every change.
+     */
+    private volatile EventSubscription[] subscriptions = NONE;
+
+    private boolean closed;
+
+    /**
+     * Constructor that delivers the events on the common fork-join pool.
+     */
+    public GossipEvents() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor from executor
+     * @param executor executor that delivers the events to the subscribers
+     */
+    public GossipEvents(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Filter accepting the events of the given types
+     * @param types types to accept
+     * @return event filter
+     */
+    public static Predicate<GossipEvent> ofType(GossipEvent.Type... types) {
+        Set<GossipEvent.Type> accepted = EnumSet.noneOf(GossipEvent.Type.class);
+        accepted.addAll(Arrays.asList(types));
+        return event -> accepted.contains(event.type());
+    }
+
+    /**
+     * Filter accepting the events of the given gossipers
+     * @param names names of the gossipers
+     * @return event filter
+     */
+    public static Predicate<GossipEvent> ofGossipers(String... names) {
+        Set<String> accepted = Set.of(names);
+        return event -> accepted.contains(event.gossiper());
+    }
+
+    /**
+     * Checks if anybody listens, to skip building the events otherwise
+     * @return true if there are subscribers
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    /**
+     * Subscribes to all the events with the default buffer
+     * @param subscriber subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super GossipEvent> subscriber) {
+        subscribe(subscriber, event -> true, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribes to the events accepted by the filter with the default buffer
+     * @param subscriber subscriber
+     * @param filter events to deliver, e.g. {@link #ofType(GossipEvent.Type...)}
+     */
+    public void subscribe(Flow.Subscriber<? super GossipEvent> subscriber, Predicate<? super GossipEvent> filter) {
+        subscribe(subscriber, filter, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Subscribes to the events accepted by the filter
+     * @param subscriber subscriber
+     * @param filter events to deliver; it runs on the propagating threads and must be fast
+     * @param capacity amount of events buffered for the subscriber
+     */
+    public void subscribe(Flow.Subscriber<? super GossipEvent> subscriber, Predicate<? super GossipEvent> filter,
+                          int capacity) {
+        Objects.requireNonNull(subscriber, "subscriber == null");
+        Objects.requireNonNull(filter, "filter == null");
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        EventSubscription subscription = new EventSubscription(subscriber, filter, capacity);
+        subscriber.onSubscribe(subscription);
+
+        synchronized (this) {
+            if (closed) {
+                subscription.complete();
+                return;
+            }
+            for (EventSubscription existing : subscriptions) {
+                if (existing.subscriber == subscriber) {
+                    subscription.fail(new IllegalStateException("already subscribed"));
+                    return;
+                }
+            }
+            EventSubscription[] next = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            next[subscriptions.length] = subscription;
+            subscriptions = next;
+        }
+    }
+
+    /**
+     * Publishes an event to the subscribers which filters accept it.
+     * @param event event to publish
+     */
+    public void publish(GossipEvent event) {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Completes the subscriptions after their buffered events, later subscribers are completed at once.
+     */
+    public void close() {
+        EventSubscription[] last;
+        synchronized (this) {
+            closed = true;
+            last = subscriptions;
+            subscriptions = NONE;
+        }
+
+        for (EventSubscription subscription : last) {
+            subscription.complete();
+        }
+    }
+
+    private synchronized void remove(EventSubscription subscription) {
+        int index = Arrays.asList(subscriptions).indexOf(subscription);
+        if (index < 0) {
+            return;
+        }
+
+        EventSubscription[] next = new EventSubscription[subscriptions.length - 1];
+        System.arraycopy(subscriptions, 0, next, 0, index);
+        System.arraycopy(subscriptions, index + 1, next, index, next.length - index);
+        subscriptions = next;
+    }
+
+    /**
+     * Subscription of one subscriber. Scheduled on the executor only while it has events and demand.
+     */
+    public final class EventSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super GossipEvent> subscriber;
+        private final Predicate<? super GossipEvent> filter;
+        private final int capacity;
+
+        private final Queue<GossipEvent> events = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile boolean cancelled;
+        private volatile boolean completing;
+
+        /**
+         * Error to signal instead of the events, set at most once.
+         */
+        private volatile Throwable error;
+
+        private EventSubscription(Flow.Subscriber<? super GossipEvent> subscriber,
+                                  Predicate<? super GossipEvent> filter, int capacity) {
+            this.subscriber = subscriber;
+            this.filter = filter;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Amount of events dropped because the buffer was full
+         * @return dropped events
+         */
+        public long dropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Amount of events waiting in the buffer
+         * @return buffered events
+         */
+        public int buffered() {
+            return size.get();
+        }
+
+        private void offer(GossipEvent event) {
+            if (cancelled || !filter.test(event)) {
+                return;
+            }
+
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+
+            events.add(event);
+            if (demand.get() > 0) {
+                schedule();
+            }
+        }
+
+        private void complete() {
+            completing = true;
+            schedule();
+        }
+
+        private void fail(Throwable e) {
+            error = e;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                drain();
+            } finally {
+                scheduled.set(false);
+            }
+
+            // an event, a request or the completion may have come after the drain stopped
+            if (!cancelled && (error != null || completing && events.isEmpty()
+                    || demand.get() > 0 && !events.isEmpty())) {
+                schedule();
+            }
+        }
+
+        private void drain() {
+            if (cancelled) {
+                events.clear();
+                return;
+            }
+
+            if (error != null) {
+                cancel();
+                events.clear();
+                subscriber.onError(error);
+                return;
+            }
+
+            for (int i = 0; i < BATCH_SIZE && demand.get() > 0; i++) {
+                GossipEvent event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                size.decrementAndGet();
+                demand.decrementAndGet();
+
+                try {
+                    subscriber.onNext(event);
+                } catch (RuntimeException e) {
+                    // a broken subscriber gets no more events
+                    cancel();
+                    return;
+                }
+                if (cancelled) {
+                    return;
+                }
+            }
+
+            if (completing && events.isEmpty()) {
+                cancel();
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package ru.hse.javaprogramming;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GossipServer speaks the command protocol of the CLI over TCP: one command per line, no prompts.
+ * <p>
+ * One selector thread does all the socket IO. Commands run on the serial executors of the {@link Networks},
+ * so many connections drive one network at once and their commands never run in parallel within a network.
+ * A connection may send many commands without waiting for the output (pipelining): they run in the order sent,
+ * and all the output of a command, including the gossip events, goes to the connection that sent it.
+ * Output is collected per connection and written in as few socket writes as possible.
+ * <p>
+ * Besides the CLI commands a connection understands "use &lt;network&gt;": its next commands go to the network,
+ * which is created with the server defaults if there is no such network and the server has fewer than
+ * {@value #MAX_NETWORKS} networks. Connections start at the default network.
+ */
+public class GossipServer implements Closeable {
+    /**
+     * A connection stops reading commands while it has this many bytes of output not written yet.
+     */
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+
+    /**
+     * A connection stops reading commands while it has this many commands not run yet.
+     */
+    private static final int MAX_PENDING_COMMANDS = 1024;
+
+    /**
+     * The longest command line in bytes, longer lines are answered with an error and not run.
+     */
+    private static final int MAX_LINE = 1 << 16;
+
+    /**
+     * "use" doesn't create networks once there are this many.
+     */
+    private static final int MAX_NETWORKS = 256;
+
+    /**
+     * How long the server stops accepting connections after accepting failed, e.g. when out of file descriptors.
+     */
+    private static final long ACCEPT_PAUSE_MILLIS = 100;
+
+    private final Networks networks;
+    private final String defaultNetwork;
+    private final int maxMoves;
+    private final int maxGossipers;
+    private final PropagationMode mode;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SelectionKey serverKey;
+
+    /**
+     * Time accepting is resumed at, 0 if it isn't paused, only used by the selector thread.
+     */
+    private long acceptPausedUntil;
+
+    /**
+     * Connections which output or state has changed, handled by the selector thread.
+     */
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1 << 16);
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor that starts listening; call {@link #run()} to serve the connections.
+     * @param networks networks to serve
+     * @param defaultNetwork network the connections start at
+     * @param port port to listen on localhost, 0 for any free port
+     * @param maxMoves maxMoves of the networks created by "use"
+     * @param maxGossipers maxGossipers of the networks created by "use"
+     * @param mode propagation mode of the networks created by "use"
+     * @throws IOException if the port can't be bound
+     */
+    public GossipServer(Networks networks, String defaultNetwork, int port, int maxMoves, int maxGossipers,
+                        PropagationMode mode) throws IOException {
+        this.networks = networks;
+        this.defaultNetwork = defaultNetwork;
+        this.maxMoves = maxMoves;
+        this.maxGossipers = maxGossipers;
+        this.mode = mode;
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", port), 4096);
+        server.configureBlocking(false);
+        serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Port the server listens on
+     * @return local port
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Serves the connections until {@link #close()} is called.
+     * @throws IOException if the selector fails
+     */
+    public void run() throws IOException {
+        while (!closed) {
+            if (acceptPausedUntil == 0) {
+                selector.select();
+            } else {
+                selector.select(Math.max(1, acceptPausedUntil - System.currentTimeMillis()));
+                if (System.currentTimeMillis() >= acceptPausedUntil) {
+                    acceptPausedUntil = 0;
+                    serverKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+            }
+
+            Connection connection;
+            while ((connection = changed.poll()) != null) {
+                connection.update();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                connection = (Connection) key.attachment();
+                try {
+                    if (key.isWritable()) {
+                        connection.write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    /**
+     * Accepts the waiting connections. If accepting fails, the server keeps serving the connections it has
+     * and tries again after a pause.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_PAUSE_MILLIS;
+                serverKey.interestOps(0);
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the connection is dropped anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the server, the connections are closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * One client. Output of its commands is collected by its sink and written by the selector thread.
+     */
+    private final class Connection implements OutputSink {
+        private final SocketChannel channel;
+        private SelectionKey key;
+
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CommandTokenizer tokenizer = new CommandTokenizer();
+
+        /**
+         * Bytes of the line being read.
+         */
+        private byte[] line = new byte[256];
+        private int lineLength;
+
+        /**
+         * The line being read is longer than {@link #MAX_LINE}, its bytes are not kept.
+         */
+        private boolean lineTooLong;
+
+        /**
+         * Network the next commands go to, only used by the selector thread.
+         */
+        private String network = defaultNetwork;
+
+        /**
+         * Completes when the last sent command has run, the next command runs after it.
+         * Never completes exceptionally, so a failed task doesn't skip the ones after it.
+         */
+        private CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+
+        /**
+         * Commands and other tasks of the connection queued but not run yet.
+         */
+        private final AtomicInteger pendingCommands = new AtomicInteger();
+
+        /**
+         * The client has closed its side, only used by the selector thread.
+         */
+        private boolean eof;
+
+        /**
+         * Output of the running command, guarded by this.
+         */
+        private final StringBuilder output = new StringBuilder();
+
+        /**
+         * Encoded output waiting for the socket, guarded by this.
+         */
+        private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+        private long outgoingBytes;
+        private boolean quitting;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                // the client won't send more, the connection closes once its commands are answered
+                eof = true;
+                enqueue(() -> {
+                    synchronized (this) {
+                        quitting = true;
+                    }
+                    changed();
+                });
+                update();
+                return;
+            }
+
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    if (lineTooLong) {
+                        enqueue(() -> {
+                            println("Error: command is longer than " + MAX_LINE + " bytes.");
+                            flush();
+                        });
+                    } else {
+                        command(decode());
+                    }
+                    lineLength = 0;
+                    lineTooLong = false;
+                } else if (lineLength < MAX_LINE) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                } else {
+                    lineTooLong = true;
+                }
+            }
+
+            update();
+        }
+
+        private String decode() throws CharacterCodingException {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                --length;
+            }
+            CharBuffer chars = decoder.decode(ByteBuffer.wrap(line, 0, length));
+            return chars.toString();
+        }
+
+        /**
+         * Schedules a command after the previous ones of the connection.
+         */
+        private void command(String text) {
+            List<String> cmd = new ArrayList<>(tokenizer.tokenize(text));
+            if (cmd.isEmpty()) {
+                return;
+            }
+
+            if (cmd.get(0).equals("use") && cmd.size() == 2) {
+                String name = cmd.get(1);
+                network = name;
+                enqueue(() -> {
+                    synchronized (networks) {
+                        if (networks.get(name) == null && networks.names().size() >= MAX_NETWORKS) {
+                            println("Error: can't create network \"" + name + "\", there are " + MAX_NETWORKS
+                                    + " networks already.");
+                            flush();
+                            return;
+                        }
+
+                        try {
+                            networks.create(name, maxMoves, maxGossipers, mode, NullSink.INSTANCE);
+                            println("Network \"" + name + "\" created.");
+                        } catch (IllegalArgumentException e) {
+                            // the network exists
+                        }
+                    }
+                    println("Using network \"" + name + "\".");
+                    flush();
+                });
+                return;
+            }
+
+            String target = network;
+            pendingCommands.incrementAndGet();
+            last = last.thenCompose(ignored -> networks.submit(target, gossipers -> {
+                OutputSink previous = gossipers.setOut(this);
+                try {
+                    if (!GossipsMain.execute(cmd, gossipers)) {
+                        synchronized (this) {
+                            quitting = true;
+                        }
+                    }
+                } finally {
+                    gossipers.setOut(previous);
+                }
+                return null;
+            })).handle((ignored, e) -> {
+                if (e != null) {
+                    println("Error: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()) + ".");
+                }
+                pendingCommands.decrementAndGet();
+                flush();
+                return null;
+            });
+        }
+
+        /**
+         * Schedules a task after the previous ones of the connection, counted like a command.
+         * An exception of the task is printed as an error.
+         */
+        private void enqueue(Runnable task) {
+            pendingCommands.incrementAndGet();
+            last = last.handle((ignored, previous) -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    println("Error: " + e.getMessage() + ".");
+                } finally {
+                    pendingCommands.decrementAndGet();
+                    flush();
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public synchronized void print(String text) {
+            output.append(text);
+        }
+
+        @Override
+        public synchronized void println(String line) {
+            output.append(line).append('\n');
+        }
+
+        @Override
+        public synchronized void message(String name, int messageNumber, String gossipMessage) {
+            output.append(name).append(", message number = ").append(messageNumber)
+                    .append(", message: \"").append(gossipMessage).append("\"\n");
+        }
+
+        @Override
+        public synchronized void tired(String name) {
+            output.append(name).append(" is tired\n");
+        }
+
+        /**
+         * Hands the output over to the selector thread.
+         */
+        @Override
+        public void flush() {
+            synchronized (this) {
+                if (output.length() > 0) {
+                    ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(output));
+                    outgoing.add(bytes);
+                    outgoingBytes += bytes.remaining();
+                    output.setLength(0);
+                }
+            }
+            changed();
+        }
+
+        private void changed() {
+            changed.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Called by the selector thread: closes the connection if it's done,
+         * else waits for writing if there is output and for reading unless there is too much work queued.
+         */
+        private void update() {
+            if (!key.isValid()) {
+                return;
+            }
+
+            synchronized (this) {
+                if (outgoing.isEmpty() && quitting) {
+                    close();
+                    return;
+                }
+
+                int ops = outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+                if (!eof && !quitting && outgoingBytes < MAX_PENDING_OUTPUT
+                        && pendingCommands.get() < MAX_PENDING_COMMANDS) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                key.interestOps(ops);
+            }
+        }
+
+        /**
+         * Writes the collected output with one gathering write.
+         */
+        private void write() throws IOException {
+            ByteBuffer[] buffers;
+            synchronized (this) {
+                buffers = outgoing.toArray(new ByteBuffer[0]);
+            }
+
+            long written = channel.write(buffers);
+
+            synchronized (this) {
+                outgoingBytes -= written;
+                while (!outgoing.isEmpty() && !outgoing.peek().hasRemaining()) {
+                    outgoing.poll();
+                }
+            }
+            update();
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing to do with a broken connection
+            }
+        }
+    }
+}
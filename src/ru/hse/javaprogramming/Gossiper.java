@@ -1,8 +1,11 @@
 package ru.hse.javaprogramming;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Abstract class of Gossiper, defines the basic functionality of a Gossiper.
@@ -14,10 +17,20 @@ public abstract class Gossiper {
     private final String name;
 
     /**
-     * Gossiper's listeners
+     * Id in the {@link Graph} of the network, -1 if the gossiper isn't in it.
+     * Listeners and talkers of the gossiper are stored in the graph by this id.
      */
-    public SortedSet<Gossiper> listeners = new TreeSet<>(
-            (Gossiper g1, Gossiper g2) -> (g1.name).compareTo(g2.name));
+    int id = -1;
+
+    /**
+     * Position in the topological order of the network, see {@link TopologicalOrder}.
+     */
+    int order;
+
+    /**
+     * Visit mark used by the searches of {@link TopologicalOrder}.
+     */
+    int mark;
 
     /**
      * The maximum amount of gossips one gossiper can receive until gossiper gets tired.
@@ -27,7 +40,34 @@ public abstract class Gossiper {
     /**
      * Current amount of received messages.
      */
-    protected int currentMessageN = 0;
+    protected final AtomicInteger currentMessageN = new AtomicInteger();
+
+    /**
+     * Time the move bucket of the gossiper is full again, counted by the {@link Recovery} of the network
+     * and used only if there is one. Starts full.
+     */
+    long rested = Long.MIN_VALUE;
+
+    /**
+     * Whether the tired message was printed since the gossiper last handled a gossip, used only with a {@link Recovery}.
+     */
+    boolean tired;
+
+    /**
+     * Counters of the gossiper, see {@link Metrics}.
+     */
+    final GossiperMetrics stats = new GossiperMetrics();
+
+    /**
+     * Type name and parameters the gossiper was created with, see {@link Gossipers#create(String, String, Map)}.
+     */
+    String type;
+    Map<String, String> params = Map.of();
+
+    /**
+     * Network the gossiper belongs to, set when the gossiper is created by {@link Gossipers}.
+     */
+    Gossipers network;
 
     /**
      * Constructor from name and maxMoves (messages until tired)
@@ -50,22 +90,19 @@ public abstract class Gossiper {
     }
 
     /**
-     * Check if gossiper is somewhere in chain of listeners of this gossiper
-     * @param gossiper gossiper to find in a chain
-     * @return true if found else false
+     * Metrics getter
+     * @return counters of the gossiper
      */
-    private boolean isACycle(Gossiper gossiper) {
-        if (this instanceof NullGossiper || gossiper instanceof NullGossiper) {
-            return false;
-        }
-
-        for (Gossiper listener : listeners) {
-            if (listener.equals(gossiper) || listener.isACycle(gossiper)) {
-                return true;
-            }
-        }
+    public GossiperMetrics getMetrics() {
+        return stats;
+    }
 
-        return false;
+    /**
+     * Listeners getter
+     * @return gossiper's listeners in alphabetical order
+     */
+    public List<Gossiper> getListeners() {
+        return graph().listeners(this);
     }
 
     /**
@@ -73,18 +110,20 @@ public abstract class Gossiper {
      * @param gossiper the Gossiper object
      */
     public void addListener(Gossiper gossiper) {
-        if (listeners.contains(gossiper)) {
-            System.out.println("Error: \"" + gossiper.name + "\" is already listening to \"" + this.name + "\"");
+        Graph graph = graph();
+        network.awaitCascades();
+        if (graph.hasLink(this, gossiper)) {
+            out().println("Error: \"" + gossiper.name + "\" is already listening to \"" + this.name + "\"");
             return;
         }
 
-        if (gossiper.isACycle(this)) {
-            System.out.println("Error: making \"" + gossiper.name + "\" a listener of \"" + this.name + "\" will cause an infinite cycle");
+        if (!network.topology.addLink(this, gossiper)) {
+            out().println("Error: making \"" + gossiper.name + "\" a listener of \"" + this.name + "\" will cause an infinite cycle");
             return;
         }
 
-        listeners.add(gossiper);
-        System.out.println("\"" + gossiper.name + "\" listens to \"" + this.name + "\"");
+        graph.link(this, gossiper);
+        out().println("\"" + gossiper.name + "\" listens to \"" + this.name + "\"");
     }
 
     /**
@@ -92,53 +131,293 @@ public abstract class Gossiper {
      * @param gossiper the Gossiper object
      */
     public void removeListener(Gossiper gossiper) {
-        if (!listeners.contains(gossiper)) {
-            System.out.println("Error: \"" + gossiper.name + "\" isn't a listener of \"" + this.name + "\"");
+        Graph graph = graph();
+        network.awaitCascades();
+        if (!graph.unlink(this, gossiper)) {
+            out().println("Error: \"" + gossiper.name + "\" isn't a listener of \"" + this.name + "\"");
             return;
         }
 
-        listeners.remove(gossiper);
-        System.out.println("\"" + gossiper.name + "\" isn't listening to \"" + this.name + "\" anymore");
+        out().println("\"" + gossiper.name + "\" isn't listening to \"" + this.name + "\" anymore");
     }
 
     /**
      * Prints a tired message containing a gossiper's name.
      */
     public void printTiredMessage() {
-        System.out.println(name + " is tired");
+        out().tired(name);
+    }
+
+    /**
+     * Checks if the gossiper is tired and prints a tired message if so.
+     * With a {@link Recovery} the message is printed once when the gossiper becomes tired, not on every check.
+     */
+    void checkTired() {
+        Recovery recovery = network.recovery;
+        if (recovery == null) {
+            if (currentMessageN.get() >= maxMoves) {
+                printTiredMessage();
+            }
+            return;
+        }
+
+        if (!tired && recovery.available(this) == 0) {
+            tired = true;
+            printTiredMessage();
+        }
+    }
+
+    /**
+     * Output of the gossiper's network
+     * @return sink the gossiper prints to
+     */
+    protected OutputSink out() {
+        if (network == null) {
+            throw new IllegalStateException("gossiper \"" + name + "\" doesn't belong to a network");
+        }
+
+        return network.out;
+    }
+
+    /**
+     * Links of the gossiper's network
+     * @return graph the gossiper is in
+     */
+    Graph graph() {
+        if (network == null) {
+            throw new IllegalStateException("gossiper \"" + name + "\" doesn't belong to a network");
+        }
+
+        return network.graph;
+    }
+
+    /**
+     * Propagator of the gossiper's network
+     * @return propagator that delivers gossiper's messages
+     */
+    protected Propagator propagator() {
+        if (network == null) {
+            throw new IllegalStateException("gossiper \"" + name + "\" doesn't belong to a network");
+        }
+
+        return network.propagator;
+    }
+
+    /**
+     * Metrics of the gossiper's network
+     * @return metrics the gossiper records to
+     */
+    protected Metrics metrics() {
+        if (network == null) {
+            throw new IllegalStateException("gossiper \"" + name + "\" doesn't belong to a network");
+        }
+
+        return network.metrics;
+    }
+
+    /**
+     * Counts an event of the gossiper if its network records metrics.
+     * @param counter counter of the gossiper's {@link #stats}
+     */
+    void count(LongAdder counter) {
+        if (metrics().isEnabled()) {
+            counter.increment();
+        }
     }
 
     /**
-     * Sends a gossip message to listeners
-     * @param gossipMessage contains the text of a gossip message
+     * Publishes an event of the gossiper if anybody subscribed to the events of its network.
+     * @param type what happened
+     * @param gossip gossip it happened to
      */
-    public void sendMessage(String gossipMessage) {
-        for (Gossiper listener : listeners) {
-            listener.getGossipMessage(gossipMessage);
+    void publish(GossipEvent.Type type, Gossip gossip) {
+        GossipEvents events = network.events;
+        if (events.hasSubscribers()) {
+            events.publish(new GossipEvent(type, name, gossip.id(), gossip.text(), currentMessageN.get()));
         }
     }
 
+    /**
+     * Sends a gossip to listeners
+     * @param gossip gossip to send
+     */
+    public void sendMessage(Gossip gossip) {
+        Metrics metrics = metrics();
+        if (metrics.isEnabled()) {
+            stats.forwarded.increment();
+            metrics.fanOut.record(graph().listenerCount(this));
+        }
+        publish(GossipEvent.Type.FORWARDED, gossip);
+
+        propagator().send(this, gossip);
+    }
+
+    /**
+     * Sends gossips to listeners in bulk, see {@link Propagator#sendAll(Gossiper, Gossip[], int)}
+     * @param gossips gossips to send
+     * @param count amount of gossips, from the start of the array
+     */
+    public void sendMessages(Gossip[] gossips, int count) {
+        if (count == 0) {
+            return;
+        }
+
+        Metrics metrics = metrics();
+        if (metrics.isEnabled()) {
+            stats.forwarded.add(count);
+            int fanOut = graph().listenerCount(this);
+            for (int i = 0; i < count; i++) {
+                metrics.fanOut.record(fanOut);
+            }
+        }
+        if (network.events.hasSubscribers()) {
+            for (int i = 0; i < count; i++) {
+                publish(GossipEvent.Type.FORWARDED, gossips[i]);
+            }
+        }
+
+        propagator().sendAll(this, gossips, count);
+    }
+
+    /**
+     * Sends a gossip to listeners several times as one multi-delivery, see {@link Propagator#send(Gossiper, Gossip, int)}
+     * @param gossip gossip to send
+     * @param times amount of copies every listener gets
+     */
+    public void sendMessage(Gossip gossip, int times) {
+        Metrics metrics = metrics();
+        if (metrics.isEnabled()) {
+            stats.forwarded.add(times);
+            metrics.fanOut.record(graph().listenerCount(this));
+        }
+        publish(GossipEvent.Type.FORWARDED, gossip);
+
+        propagator().send(this, gossip, times);
+    }
+
+    /**
+     * Atomically counts a received gossip if the gossiper isn't tired yet.
+     * With a {@link Recovery} the gossiper is tired while her move bucket is empty.
+     * @return true if the gossip is counted, false if the gossiper is tired
+     */
+    protected boolean takeMove() {
+        Recovery recovery = network.recovery;
+        if (recovery != null) {
+            if (!recovery.take(this)) {
+                return false;
+            }
+            currentMessageN.incrementAndGet();
+            tired = false;
+            return true;
+        }
+
+        if (!propagator().isConcurrent()) {
+            // one delivery at a time, the network's executor publishes the count to the next command
+            int moves = currentMessageN.getPlain();
+            if (moves < maxMoves) {
+                currentMessageN.setPlain(moves + 1);
+                return true;
+            }
+            return false;
+        }
+
+        int moves = currentMessageN.get();
+
+        while (moves < maxMoves) {
+            if (currentMessageN.compareAndSet(moves, moves + 1)) {
+                return true;
+            }
+
+            moves = currentMessageN.get();
+        }
+
+        return false;
+    }
+
     /**
      * Remembers a gossip
-     * @param gossipMessage contains the text of a gossip message
+     * @param gossip received gossip
      */
-    public void getGossipMessage(String gossipMessage) {
-        if (currentMessageN < maxMoves) {
-            ++currentMessageN;
-            doGossipAction(gossipMessage);
+    public void getGossipMessage(Gossip gossip) {
+        count(stats.received);
+
+        if (takeMove()) {
+            doGossipAction(gossip);
+        } else {
+            count(stats.tired);
+            publish(GossipEvent.Type.TIRED, gossip);
         }
 
-        if (currentMessageN >= maxMoves) {
-            printTiredMessage();
+        propagator().settle(this);
+    }
+
+    /**
+     * Remembers a vector of gossips that reach the gossiper together, see {@link Propagator#propagateAll(List, List)}.
+     * By default every gossip is received as by {@link #getGossipMessage(Gossip)};
+     * types that filter gossips override it to filter the whole vector in one pass.
+     * @param gossips received gossips in the order they arrived, must not be changed
+     */
+    public void getGossipMessages(Gossip[] gossips) {
+        for (Gossip gossip : gossips) {
+            getGossipMessage(gossip);
         }
     }
 
+    /**
+     * How many of the received copies of a gossip the gossiper would handle, used by {@link CascadeEstimate}.
+     * Nothing is received, the state of the gossiper doesn't change.
+     * @param gossip gossip to estimate
+     * @param received copies the gossiper would receive
+     * @return copies the gossiper would handle, the rest are dropped
+     */
+    protected long acceptedCopies(Gossip gossip, long received) {
+        Recovery recovery = network.recovery;
+        long moves = recovery != null ? recovery.available(this) : Math.max(0, maxMoves - currentMessageN.get());
+        return Math.min(received, moves);
+    }
+
+    /**
+     * The least amount of copies of a handled gossip the gossiper sends to every listener, used by {@link CascadeEstimate}.
+     * Types that send other than one copy per handled gossip override both this and {@link #maxCopies(Gossip)}.
+     * @param gossip gossip to estimate
+     * @return the least amount of copies
+     */
+    protected int minCopies(Gossip gossip) {
+        return 1;
+    }
+
+    /**
+     * The greatest amount of copies of a handled gossip the gossiper sends to every listener, see {@link #minCopies(Gossip)}.
+     * @param gossip gossip to estimate
+     * @return the greatest amount of copies
+     */
+    protected int maxCopies(Gossip gossip) {
+        return 1;
+    }
+
+    /**
+     * Writes the state specific to the gossiper type to a snapshot.
+     * @param out snapshot output
+     * @throws IOException if the snapshot can't be written
+     */
+    protected void writeState(SnapshotOutput out) throws IOException {
+    }
+
+    /**
+     * Reads the state written by {@link #writeState(SnapshotOutput)}.
+     * @param in snapshot input
+     * @throws IOException if the snapshot is corrupted
+     */
+    protected void readState(SnapshotInput in) throws IOException {
+    }
+
     /**
      * Prints message with a number of a message
-     * @param gossipMessage message
+     * @param gossip received gossip
      */
-    public void printMessage(String gossipMessage) {
-        System.out.println(this.name + ", message number = " + currentMessageN + ", message: \"" + gossipMessage + "\"");
+    public void printMessage(Gossip gossip) {
+        out().message(name, currentMessageN.get(), gossip.text());
+        publish(GossipEvent.Type.DELIVERED, gossip);
     }
 
 
@@ -146,5 +425,5 @@ public abstract class Gossiper {
      * Prints name, number of a message, gossip message.
      * Spreads the gossip to listeners according to gossiper's rules
      */
-    public abstract void doGossipAction(String gossipMessage);
+    public abstract void doGossipAction(Gossip gossip);
 }
@@ -0,0 +1,37 @@
+package ru.hse.javaprogramming;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * GossiperFactory creates gossipers of one type for the create command.
+ * <p>
+ * New types are plugged in with {@link java.util.ServiceLoader}: a jar with an implementation and
+ * a "META-INF/services/ru.hse.javaprogramming.GossiperFactory" file naming it, put on the class path or
+ * into the directory given by "--plugins=dir". See {@link GossiperTypes}.
+ */
+public interface GossiperFactory {
+    /**
+     * Type name used in the create command
+     * @return type name
+     */
+    String type();
+
+    /**
+     * Parameters the type accepts, others are rejected before {@link #create(String, int, Map)} is called.
+     * @return names of the parameters, none by default
+     */
+    default Set<String> parameters() {
+        return Set.of();
+    }
+
+    /**
+     * Creates a gossiper of the type
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param params type parameters, only the ones from {@link #parameters()}
+     * @return new gossiper
+     * @throws IllegalArgumentException if a parameter has a wrong value
+     */
+    Gossiper create(String name, int maxMoves, Map<String, String> params);
+}
@@ -0,0 +1,67 @@
+package ru.hse.javaprogramming;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one gossiper, updated only while the network records metrics, see {@link Metrics}.
+ */
+public class GossiperMetrics {
+    /**
+     * Gossips delivered to the gossiper.
+     */
+    final LongAdder received = new LongAdder();
+
+    /**
+     * Times the gossiper has sent a gossip to its listeners.
+     */
+    final LongAdder forwarded = new LongAdder();
+
+    /**
+     * Gossips a censor hasn't passed.
+     */
+    final LongAdder censored = new LongAdder();
+
+    /**
+     * Gossips a deduplicator has seen before.
+     */
+    final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Gossips received while tired.
+     */
+    final LongAdder tired = new LongAdder();
+
+    public long received() {
+        return received.sum();
+    }
+
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    public long censored() {
+        return censored.sum();
+    }
+
+    public long duplicates() {
+        return duplicates.sum();
+    }
+
+    public long tired() {
+        return tired.sum();
+    }
+
+    void reset() {
+        received.reset();
+        forwarded.reset();
+        censored.reset();
+        duplicates.reset();
+        tired.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "received=" + received() + " forwarded=" + forwarded() + " censored=" + censored()
+                + " duplicates=" + duplicates() + " tired=" + tired();
+    }
+}
@@ -0,0 +1,144 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * GossiperTypes maps type names to their factories.
+ * It has the {@link BuiltinTypes} and the factories found by {@link ServiceLoader} on the class path,
+ * more can be loaded from plugin jars with {@link #loadPlugins(Path)}.
+ * A type is looked up once per created gossiper, the factory then creates her directly.
+ */
+public class GossiperTypes {
+    /**
+     * Factories found on the class path, looked up once.
+     */
+    private static List<GossiperFactory> classPathFactories;
+
+    private final Map<String, GossiperFactory> factories = new TreeMap<>();
+
+    /**
+     * Creates a registry with the built-in types and the types found on the class path.
+     * @return new registry
+     * @throws IllegalArgumentException if a type on the class path repeats another type
+     */
+    public static GossiperTypes standard() {
+        GossiperTypes types = new GossiperTypes();
+        for (GossiperFactory factory : BuiltinTypes.values()) {
+            types.register(factory);
+        }
+        for (GossiperFactory factory : classPathFactories()) {
+            types.register(factory);
+        }
+        return types;
+    }
+
+    private static synchronized List<GossiperFactory> classPathFactories() {
+        if (classPathFactories == null) {
+            List<GossiperFactory> found = new ArrayList<>();
+            ServiceLoader.load(GossiperFactory.class).forEach(found::add);
+            classPathFactories = List.copyOf(found);
+        }
+        return classPathFactories;
+    }
+
+    /**
+     * Adds a type
+     * @param factory factory of the type
+     * @throws IllegalArgumentException if the type is already registered
+     */
+    public void register(GossiperFactory factory) {
+        if (factories.putIfAbsent(factory.type(), factory) != null) {
+            throw new IllegalArgumentException("type \"" + factory.type() + "\" is already registered");
+        }
+    }
+
+    /**
+     * Adds the types from every jar in the directory.
+     * @param dir directory with plugin jars
+     * @return amount of added types
+     * @throws IOException if the directory can't be read
+     * @throws IllegalArgumentException if a plugin is broken or repeats a type
+     */
+    public int loadPlugins(Path dir) throws IOException {
+        List<URL> jars = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (path.getFileName().toString().endsWith(".jar")) {
+                    jars.add(path.toUri().toURL());
+                }
+            }
+        }
+
+        ClassLoader loader = new URLClassLoader(jars.toArray(new URL[0]), GossiperTypes.class.getClassLoader());
+        int added = 0;
+        try {
+            for (GossiperFactory factory : ServiceLoader.load(GossiperFactory.class, loader)) {
+                if (factory.getClass().getClassLoader() == loader) {
+                    register(factory);
+                    ++added;
+                }
+            }
+        } catch (ServiceConfigurationError e) {
+            throw new IllegalArgumentException("broken plugin: " + e.getMessage());
+        }
+        return added;
+    }
+
+    /**
+     * Factory of the type
+     * @param type type name
+     * @return factory, or null if the type is unknown
+     */
+    public GossiperFactory get(String type) {
+        return factories.get(type);
+    }
+
+    /**
+     * Names of all the types
+     * @return type names in alphabetical order
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(factories.keySet());
+    }
+
+    /**
+     * Creates a gossiper of the type, checking the parameters against the ones the type accepts.
+     * @param type type name
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param params type parameters
+     * @return new gossiper
+     * @throws IllegalArgumentException if the type is unknown or the parameters are wrong
+     */
+    public Gossiper create(String type, String name, int maxMoves, Map<String, String> params) {
+        GossiperFactory factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException("unknown type");
+        }
+
+        Set<String> accepted = factory.parameters();
+        if (!params.isEmpty() && accepted.isEmpty()) {
+            throw new IllegalArgumentException("type \"" + type + "\" has no parameters");
+        }
+        for (String key : params.keySet()) {
+            if (!accepted.contains(key)) {
+                throw new IllegalArgumentException("unknown parameter \"" + key + "\"");
+            }
+        }
+
+        return factory.create(name, maxMoves, params);
+    }
+}
@@ -1,7 +1,18 @@
 package ru.hse.javaprogramming;
 
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Gossipers {
     /**
@@ -14,79 +25,325 @@ public class Gossipers {
      */
     public final int maxGossipers;
 
+    /**
+     * Propagator that delivers gossips through the network.
+     */
+    final Propagator propagator;
+
+    /**
+     * Output of the network: command results and gossip events.
+     */
+    public volatile OutputSink out;
+
+    /**
+     * Gossiper types the network can create.
+     */
+    public final GossiperTypes types = GossiperTypes.standard();
+
+    /**
+     * Metrics of the network, off until enabled.
+     */
+    public final Metrics metrics = new Metrics();
+
+    /**
+     * Events of the network, built only while somebody subscribes.
+     */
+    public final GossipEvents events = new GossipEvents();
+
+    /**
+     * Messages which cascade may cause more deliveries are rejected, 0 = no limit. See {@link CascadeEstimate}.
+     */
+    public volatile long maxDeliveries;
+
+    /**
+     * Refill of the moves of tired gossipers, null if gossipers never recover.
+     */
+    public volatile Recovery recovery;
+
+    /**
+     * Journal of the commands changing the network, null if the network isn't journaled.
+     */
+    Journal journal;
+
+    /**
+     * Shard of a partitioned network this network is, null if the network isn't partitioned.
+     */
+    Shard shard;
+
     /**
      * The sorted set of gossipers, sorted alphabetically.
      */
-    public static SortedSet<Gossiper> gossipersSet = new TreeSet<>(
+    public final SortedSet<Gossiper> gossipersSet = new TreeSet<>(
             (Gossiper g1, Gossiper g2) -> (g1.getName()).compareTo(g2.getName()));
 
+    /**
+     * Gossipers by name, always contains the same gossipers as gossipersSet.
+     */
+    private final Map<String, Gossiper> gossipersIndex = new HashMap<>();
+
+    /**
+     * Links of gossipersSet by gossiper ids.
+     */
+    final Graph graph = new Graph();
+
+    /**
+     * Topological order of gossipersSet, used to find cycles when linking.
+     */
+    final TopologicalOrder topology = new TopologicalOrder(graph);
+
+    /**
+     * Cascades started by {@link #submit(String, String)} that haven't died out yet.
+     * The graph isn't changed until they are over, see {@link #awaitCascades()}.
+     */
+    private final Set<CompletableFuture<Void>> cascades = ConcurrentHashMap.newKeySet();
+
     /**
      * Constructor from maxMoves and maxGossipers.
      * @param maxMoves the maximum amount of gossips one gossiper can receive until she gets tired.
      * @param maxGossipers the maximum amount of gossipers.
      */
     public Gossipers(int maxMoves, int maxGossipers) {
+        this(maxMoves, maxGossipers, PropagationMode.DEPTH_FIRST);
+    }
+
+    /**
+     * Constructor from maxMoves, maxGossipers and propagation mode.
+     * @param maxMoves the maximum amount of gossips one gossiper can receive until she gets tired.
+     * @param maxGossipers the maximum amount of gossipers.
+     * @param mode order in which gossips are delivered.
+     */
+    public Gossipers(int maxMoves, int maxGossipers, PropagationMode mode) {
+        this(maxMoves, maxGossipers, mode, new BufferedSink(System.out));
+    }
+
+    /**
+     * Constructor from maxMoves, maxGossipers, propagation mode and output sink.
+     * @param maxMoves the maximum amount of gossips one gossiper can receive until she gets tired.
+     * @param maxGossipers the maximum amount of gossipers.
+     * @param mode order in which gossips are delivered.
+     * @param out sink to print to, flushed by the caller after each command.
+     */
+    public Gossipers(int maxMoves, int maxGossipers, PropagationMode mode, OutputSink out) {
         this.maxMoves = maxMoves;
         this.maxGossipers = maxGossipers;
+        this.propagator = mode.newPropagator();
+        this.out = out;
     }
 
     /**
-     * Find the gossiper by name
+     * Replace the output of the network, e.g. to mute it while replaying a journal.
+     * @param out new sink to print to
+     * @return the previous sink
+     */
+    public OutputSink setOut(OutputSink out) {
+        OutputSink previous = this.out;
+        this.out = out;
+        return previous;
+    }
+
+    /**
+     * Write the commands changing the network to the journal before running them.
+     * @param journal recovered journal, or null to stop journaling
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Find the gossiper by name. In a {@link Shard} the gossipers of other shards that local ones link to are found too.
      * @param name gossiper's name
      * @return Gossiper object if found, else null
      */
     public Gossiper findByName(String name) {
-        for (Gossiper gossiper : gossipersSet) {
-            if (name.equals(gossiper.getName())) {
-                return gossiper;
-            }
+        Gossiper gossiper = gossipersIndex.get(name);
+        if (gossiper == null && shard != null) {
+            return shard.remote(name);
         }
 
-        return null;
+        return gossiper;
     }
 
     /**
      * Create a gossiper instance with chosen name.
-     * Possible types:
+     * Built-in types:
      * 1. null
      * 2. censor
      * 3. spammer
      * 4. simple
      * 5. deduplicator
-     * Max amount of gossipers = 100.
+     * More types can be added to {@link #types}.
+     * Max amount of gossipers = maxGossipers.
      *
      * @param name gossiper name
      * @param type gossiper type
      */
     public void create(String name, String type) {
+        create(name, type, Map.of());
+    }
+
+    /**
+     * Create a gossiper instance with chosen name and type parameters.
+     * Parameters of deduplicator are described in {@link DedupStores}, of censor in {@link CensorGossiper}.
+     *
+     * @param name gossiper name
+     * @param type gossiper type
+     * @param params type parameters
+     */
+    public void create(String name, String type, Map<String, String> params) {
         if (name.length() < 1) {
-            System.out.println("Error: name cannot be empty.");
+            out.println("Error: name cannot be empty.");
             return;
         }
 
         if (findByName(name) != null) {
-            System.out.println("Error: name already taken.");
+            out.println("Error: name already taken.");
             return;
         }
 
         if (gossipersSet.size() >= maxGossipers) {
-            System.out.println("Error: maximum amount of gossipers reached (" + maxGossipers + ").");
+            out.println("Error: maximum amount of gossipers reached (" + maxGossipers + ").");
+            return;
+        }
+
+        Gossiper gossiper;
+
+        try {
+            gossiper = newGossiper(name, type, params, maxMoves);
+        } catch (IllegalArgumentException e) {
+            out.println("Error: " + e.getMessage() + ".");
+            return;
+        }
+
+        topology.add(gossiper);
+        add(gossiper);
+
+        out.println(name + " successfully created.");
+    }
+
+    /**
+     * Creates a gossiper of the type, not added to the network yet.
+     * @param name gossiper name
+     * @param type gossiper type
+     * @param params type parameters
+     * @param maxMoves messages gossiper may receive until tired
+     * @return new gossiper
+     * @throws IllegalArgumentException if the type is unknown or the parameters are wrong
+     */
+    Gossiper newGossiper(String name, String type, Map<String, String> params, int maxMoves) {
+        Gossiper gossiper = types.create(type, name, maxMoves, params);
+
+        gossiper.type = type;
+        gossiper.params = Map.copyOf(params);
+        return gossiper;
+    }
+
+    /**
+     * Adds a created gossiper to the network.
+     * @param gossiper gossiper with a unique name
+     */
+    private void add(Gossiper gossiper) {
+        awaitCascades();
+        gossiper.network = this;
+        graph.add(gossiper);
+        gossipersSet.add(gossiper);
+        gossipersIndex.put(gossiper.getName(), gossiper);
+        metrics.added(gossiper);
+    }
+
+    /**
+     * Remove the gossiper by name, she also stops listening to everyone.
+     * @param name gossiper name
+     */
+    public void remove(String name) {
+        Gossiper gossiper = gossipersIndex.get(name);
+
+        if (gossiper == null) {
+            out.println("Error: name \"" + name + "\" not found.");
+            return;
+        }
+
+        // the running cascades see the gossiper in the index and in the graph until they die out
+        awaitCascades();
+        gossipersIndex.remove(name);
+        gossipersSet.remove(gossiper);
+        metrics.removed(gossiper);
+        graph.remove(gossiper);
+        propagator.forget(gossiper);
+
+        out.println(name + " successfully removed.");
+    }
+
+    /**
+     * Remove all the gossipers.
+     */
+    public void clear() {
+        awaitCascades();
+        gossipersSet.clear();
+        metrics.cleared();
+        gossipersIndex.clear();
+        graph.clear();
+        propagator.forgetAll();
+    }
+
+    /**
+     * Save all the gossipers, their links and state to a binary snapshot file.
+     * @param file file to write
+     */
+    public void save(String file) {
+        try {
+            Snapshot.Stats stats = Snapshot.save(this, Path.of(file));
+            out.println("Saved " + stats.gossipers() + " gossipers and " + stats.links() + " links to \"" + file + "\".");
+        } catch (IOException | RuntimeException e) {
+            out.println("Error: can't save to \"" + file + "\": " + e.getMessage() + ".");
+        }
+    }
+
+    /**
+     * Replace all the gossipers with the ones from a snapshot file.
+     * Links are restored without cycle checks, the current network is kept if the file can't be loaded.
+     * @param file file to read
+     */
+    public void load(String file) {
+        int loaded;
+        try {
+            loaded = loadSnapshot(Path.of(file));
+        } catch (NoSuchFileException e) {
+            out.println("Error: file \"" + file + "\" not found.");
+            return;
+        } catch (IOException | RuntimeException e) {
+            out.println("Error: can't load \"" + file + "\": " + e.getMessage() + ".");
             return;
         }
 
-        switch (type) {
-            case "null" -> gossipersSet.add(new NullGossiper(name, maxMoves));
-            case "censor" -> gossipersSet.add(new CensorGossiper(name, maxMoves));
-            case "spammer" -> gossipersSet.add(new SpammerGossiper(name, maxMoves));
-            case "simple" -> gossipersSet.add(new SimpleGossiper(name, maxMoves));
-            case "deduplicator" -> gossipersSet.add(new DeduplicatorGossiper(name, maxMoves));
-            default -> {
-                System.out.println("Error: unknown type.");
-                return;
+        out.println("Loaded " + loaded + " gossipers and " + graph.linkCount() + " links from \"" + file + "\".");
+    }
+
+    /**
+     * Replaces all the gossipers with the ones from a snapshot file, prints nothing.
+     * The current network is kept if the file can't be loaded.
+     * @param file file to read
+     * @return amount of loaded gossipers
+     * @throws IOException if the file can't be read or is not a valid snapshot
+     */
+    int loadSnapshot(Path file) throws IOException {
+        Snapshot.Contents contents = Snapshot.read(this, file);
+
+        List<Gossiper> loaded = contents.gossipers();
+        Set<String> names = new HashSet<>();
+        for (Gossiper gossiper : loaded) {
+            if (!names.add(gossiper.getName())) {
+                throw new IOException("name \"" + gossiper.getName() + "\" is repeated");
             }
         }
 
-        System.out.println(name + " successfully created.");
+        clear();
+        for (Gossiper gossiper : loaded) {
+            topology.restore(gossiper);
+            add(gossiper);
+        }
+        graph.linkAll(loaded, contents.links());
+
+        return loaded.size();
     }
 
     /**
@@ -100,17 +357,17 @@ public class Gossipers {
         Gossiper listener = findByName(name2);
 
         if (talker == null) {
-            System.out.println("Error: name \"" + name1 + "\" not found.");
+            out.println("Error: name \"" + name1 + "\" not found.");
             return;
         }
 
         if (listener == null) {
-            System.out.println("Error: name \"" + name2 + "\" not found.");
+            out.println("Error: name \"" + name2 + "\" not found.");
             return;
         }
 
         if (talker == listener) {
-            System.out.println("Error: can't link/unlink \"" + name1 + "\" to themselves.");
+            out.println("Error: can't link/unlink \"" + name1 + "\" to themselves.");
             return;
         }
 
@@ -121,6 +378,86 @@ public class Gossipers {
         }
     }
 
+    /**
+     * Links many gossipers at once: the names are looked up once, the whole batch is checked for cycles with one
+     * search (see {@link TopologicalOrder#findCycles(Gossiper[], Gossiper[], int)}) and the links are added in bulk.
+     * Every refused link is reported, the accepted ones are only counted.
+     * @param links links to add, repeated ones are added once
+     * @return links that were refused: unknown names, links to themselves, existing links and links making cycles
+     */
+    public List<Link> linkAll(List<Link> links) {
+        awaitCascades();
+        List<Link> refused = new ArrayList<>();
+        Gossiper[] talkers = new Gossiper[links.size()];
+        Gossiper[] listeners = new Gossiper[links.size()];
+        Link[] accepted = new Link[links.size()];
+        Set<Long> batch = new HashSet<>();
+        int count = 0;
+
+        for (Link link : links) {
+            Gossiper talker = findByName(link.talker());
+            Gossiper listener = findByName(link.listener());
+
+            if (talker == null || listener == null) {
+                out.println("Error: name \"" + (talker == null ? link.talker() : link.listener()) + "\" not found.");
+                refused.add(link);
+            } else if (talker == listener) {
+                out.println("Error: can't link/unlink \"" + link.talker() + "\" to themselves.");
+                refused.add(link);
+            } else if (graph.hasLink(talker, listener)) {
+                out.println("Error: \"" + link.listener() + "\" is already listening to \"" + link.talker() + "\"");
+                refused.add(link);
+            } else if (batch.add(((long) talker.id << 32) | listener.id)) {
+                talkers[count] = talker;
+                listeners[count] = listener;
+                accepted[count++] = link;
+            }
+        }
+
+        boolean[] cyclic = topology.findCycles(talkers, listeners, count);
+        List<Gossiper> ends = new ArrayList<>(2 * count);
+        for (int i = 0; i < count; i++) {
+            if (cyclic[i]) {
+                out.println("Error: making \"" + accepted[i].listener() + "\" a listener of \"" + accepted[i].talker()
+                        + "\" will cause an infinite cycle");
+                refused.add(accepted[i]);
+            } else {
+                ends.add(talkers[i]);
+                ends.add(listeners[i]);
+            }
+        }
+
+        int[] pairs = new int[ends.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = i;
+        }
+        graph.linkAll(ends, pairs);
+        topology.rebuild();
+
+        out.println("Linked " + pairs.length / 2 + " links, refused " + refused.size() + ".");
+        return refused;
+    }
+
+    /**
+     * Links many gossipers at once from an edge list file, see {@link Link#read(Path)} and {@link #linkAll(List)}.
+     * Nothing is linked if the file can't be read.
+     * @param file file to read
+     */
+    public void linkFile(String file) {
+        List<Link> links;
+        try {
+            links = Link.read(Path.of(file));
+        } catch (NoSuchFileException e) {
+            out.println("Error: file \"" + file + "\" not found.");
+            return;
+        } catch (IOException | RuntimeException e) {
+            out.println("Error: can't read \"" + file + "\": " + e.getMessage() + ".");
+            return;
+        }
+
+        linkAll(links);
+    }
+
     /**
      * Send the message to gossiper by the name
      * @param name gossiper's name
@@ -130,16 +467,156 @@ public class Gossipers {
         Gossiper talker = findByName(name);
 
         if (talker == null) {
-            System.out.println("Error: name \"" + name + "\" not found.");
+            out.println("Error: name \"" + name + "\" not found.");
             return;
         }
 
         if (message.length() < 1) {
-            System.out.println("Error: message cannot be empty.");
+            out.println("Error: message cannot be empty.");
+            return;
+        }
+
+        Gossip gossip = new Gossip(message);
+        String rejection = admit(talker, gossip);
+        if (rejection != null) {
+            out.println("Error: " + rejection + ".");
+            return;
+        }
+
+        propagator.propagate(talker, gossip);
+    }
+
+    /**
+     * Send many messages at once. The dfs and bfs engines spread them together, every gossiper gets the messages
+     * that reach her as one vector, see {@link QueuePropagator#propagateAll(List, List)} for the order;
+     * the other engines send them one after another.
+     * Messages with an unknown gossiper, an empty text or over {@link #maxDeliveries} are reported and skipped.
+     * @param messages messages to send
+     */
+    public void messageAll(List<Message> messages) {
+        List<Gossiper> targets = new ArrayList<>(messages.size());
+        List<Gossip> gossips = new ArrayList<>(messages.size());
+
+        for (Message message : messages) {
+            Gossiper talker = findByName(message.gossiper());
+
+            if (talker == null) {
+                out.println("Error: name \"" + message.gossiper() + "\" not found.");
+                continue;
+            }
+
+            if (message.text().length() < 1) {
+                out.println("Error: message cannot be empty.");
+                continue;
+            }
+
+            Gossip gossip = new Gossip(message.text());
+            String rejection = admit(talker, gossip);
+            if (rejection != null) {
+                out.println("Error: " + rejection + ".");
+                continue;
+            }
+
+            targets.add(talker);
+            gossips.add(gossip);
+        }
+
+        propagator.propagateAll(targets, gossips);
+    }
+
+    /**
+     * Checks the message against {@link #maxDeliveries}
+     * @return why the message is rejected, or null if it's admitted
+     */
+    private String admit(Gossiper talker, Gossip gossip) {
+        long limit = maxDeliveries;
+        if (limit <= 0) {
+            return null;
+        }
+
+        CascadeEstimate estimate = CascadeEstimate.of(this, talker, gossip);
+        if (estimate.maxDeliveries() <= limit) {
+            return null;
+        }
+        return "message may cause up to " + estimate.maxDeliveries() + " deliveries, the limit is " + limit;
+    }
+
+    /**
+     * Print the bounds of the cascade a message would cause, without sending it
+     * @param name gossiper's name
+     * @param message message text
+     */
+    public void estimate(String name, String message) {
+        Gossiper talker = findByName(name);
+
+        if (talker == null) {
+            out.println("Error: name \"" + name + "\" not found.");
             return;
         }
 
-        talker.getGossipMessage(message);
+        CascadeEstimate estimate = CascadeEstimate.of(this, talker, new Gossip(message));
+        out.println("Reach: " + estimate.reach() + " gossipers, deliveries: from " + estimate.minDeliveries()
+                + " to " + estimate.maxDeliveries() + ".");
+
+        long limit = maxDeliveries;
+        if (limit > 0 && estimate.maxDeliveries() > limit) {
+            out.println("The message would be rejected, the limit is " + limit + ".");
+        }
+    }
+
+    /**
+     * Start sending the message to gossiper by the name without waiting for the cascade to die out.
+     * With the concurrent engine many messages submitted at once are spread in parallel.
+     * The cascade reads the graph from other threads, so the links are frozen until the future completes:
+     * creating, removing, linking and unlinking gossipers wait for it first.
+     * @param name gossiper's name
+     * @param message message text
+     * @return future that completes when the message cascade has died out
+     */
+    public CompletableFuture<Void> submit(String name, String message) {
+        Gossiper talker = findByName(name);
+
+        if (talker == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("name \"" + name + "\" not found"));
+        }
+
+        if (message.length() < 1) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("message cannot be empty"));
+        }
+
+        Gossip gossip = new Gossip(message);
+        String rejection = admit(talker, gossip);
+        if (rejection != null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(rejection));
+        }
+
+        CompletableFuture<Void> cascade = propagator.submit(talker, gossip);
+        cascades.add(cascade);
+        cascade.whenComplete((ignored, e) -> cascades.remove(cascade));
+        return cascade;
+    }
+
+    /**
+     * Waits until every cascade started by {@link #submit(String, String)} has died out,
+     * called before the graph changes. Must not be called from a cascade.
+     */
+    void awaitCascades() {
+        for (CompletableFuture<Void> cascade : cascades) {
+            try {
+                cascade.join();
+            } catch (RuntimeException e) {
+                // the failure is reported to whoever submitted the message
+            }
+        }
+    }
+
+    /**
+     * Waits for the submitted cascades and stops the propagation engine, see {@link Propagator#close()}.
+     * Messages can't be sent afterwards.
+     */
+    public void close() {
+        awaitCascades();
+        propagator.close();
     }
 
     /**
@@ -147,7 +624,7 @@ public class Gossipers {
      */
     public void gossips() {
         for (Gossiper gossiper : gossipersSet) {
-            System.out.println(gossiper.getName());
+            out.println(gossiper.getName());
         }
     }
 
@@ -159,12 +636,12 @@ public class Gossipers {
         Gossiper talker = findByName(name);
 
         if (talker == null) {
-            System.out.println("Error: name \"" + name + "\" not found.");
+            out.println("Error: name \"" + name + "\" not found.");
             return;
         }
 
-        for (Gossiper gossiper : talker.listeners) {
-            System.out.println(gossiper.getName());
+        for (Gossiper gossiper : graph.listeners(talker)) {
+            out.println(gossiper.getName());
         }
     }
 }
@@ -1,8 +1,22 @@
 package ru.hse.javaprogramming;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import javax.management.JMException;
 
 /**
  * Main class containing io handling and other driver code.
@@ -12,62 +26,418 @@ public class GossipsMain {
     /**
      * Checks if CLI argument "m" is passed correctly.
      * @param args first argument must be m - amount of maximum gossips.
+     *             Optional "--engine=recursive|dfs|bfs|parallel" chooses the propagation engine (dfs by default).
+     *             Optional "--max-gossipers=n" sets the maximum amount of gossipers (100 by default).
+     *             Optional "--batch" reads commands from stdin without prompts, "--batch=file" reads them from file.
+     *             Optional "--server=port" serves the commands over TCP on localhost instead, see {@link GossipServer}.
+     *             Optional "--plugins=dir" adds gossiper types from the jars in dir.
+     *             Optional "--metrics" turns metrics on and registers them in JMX.
+     *             Optional "--max-deliveries=n" rejects messages that may cause more than n deliveries.
+     *             Optional "--recovery=r" gives tired gossipers r moves back per second, see {@link Recovery};
+     *             it can't be used with "--journal".
+     *             Optional "--journal=dir" restores the network from the journal in dir and journals new commands.
+     *             Optional "--cluster=port,port,..." with "--shard=i" runs shard i of a network partitioned across
+     *             processes listening on the ports of localhost, see {@link Shard}.
      */
     public static void main(String[] args) {
+        OutputSink out = new BufferedSink(System.out);
+        try {
+            start(args, out);
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Parses CLI arguments and runs the command loop.
+     * @param args CLI arguments, see {@link #main(String[])}
+     * @param out sink to print to
+     */
+    private static void start(String[] args, OutputSink out) {
+        PropagationMode mode = PropagationMode.DEPTH_FIRST;
+        int maxGossipers = 100;
+        String batch = null;
+        Integer port = null;
+        String journalDir = null;
+        boolean metrics = false;
+        String plugins = null;
+        long maxDeliveries = 0;
+        Recovery recovery = null;
+        int[] cluster = null;
+        int shard = 0;
+
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--engine=")) {
+                mode = PropagationMode.byName(args[i].substring("--engine=".length()));
+            } else if (args[i].startsWith("--max-gossipers=")) {
+                try {
+                    maxGossipers = Integer.parseUnsignedInt(args[i].substring("--max-gossipers=".length()));
+                } catch (NumberFormatException e) {
+                    out.println("Error: --max-gossipers must be an unsigned integer number.");
+                    return;
+                }
+            } else if (args[i].equals("--batch")) {
+                batch = "";
+            } else if (args[i].startsWith("--batch=")) {
+                batch = args[i].substring("--batch=".length());
+            } else if (args[i].startsWith("--server=")) {
+                try {
+                    port = Integer.parseUnsignedInt(args[i].substring("--server=".length()));
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+                if (port < 0 || port > 65535) {
+                    out.println("Error: --server must be a port number from 0 to 65535.");
+                    return;
+                }
+            } else if (args[i].startsWith("--plugins=")) {
+                plugins = args[i].substring("--plugins=".length());
+            } else if (args[i].equals("--metrics")) {
+                metrics = true;
+            } else if (args[i].startsWith("--max-deliveries=")) {
+                try {
+                    maxDeliveries = Long.parseUnsignedLong(args[i].substring("--max-deliveries=".length()));
+                } catch (NumberFormatException e) {
+                    out.println("Error: --max-deliveries must be an unsigned integer number.");
+                    return;
+                }
+            } else if (args[i].startsWith("--recovery=")) {
+                try {
+                    recovery = new Recovery(Double.parseDouble(args[i].substring("--recovery=".length())));
+                } catch (IllegalArgumentException e) {
+                    out.println("Error: --recovery must be a positive number of moves per second.");
+                    return;
+                }
+            } else if (args[i].startsWith("--cluster=")) {
+                try {
+                    String[] ports = args[i].substring("--cluster=".length()).split(",");
+                    cluster = new int[ports.length];
+                    for (int j = 0; j < ports.length; j++) {
+                        cluster[j] = Integer.parseUnsignedInt(ports[j]);
+                        if (cluster[j] < 0 || cluster[j] > 65535) {
+                            throw new NumberFormatException("port out of range");
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    out.println("Error: --cluster must be a list of port numbers separated by commas.");
+                    return;
+                }
+            } else if (args[i].startsWith("--shard=")) {
+                try {
+                    shard = Integer.parseUnsignedInt(args[i].substring("--shard=".length()));
+                } catch (NumberFormatException e) {
+                    out.println("Error: --shard must be an unsigned integer number.");
+                    return;
+                }
+            } else if (args[i].startsWith("--journal=")) {
+                journalDir = args[i].substring("--journal=".length());
+            }
+
+            if (mode == null) {
+                out.println("Error: unknown engine, possible engines: recursive, dfs, bfs, parallel.");
+                return;
+            }
+        }
+
+        if (recovery != null && journalDir != null) {
+            // recovery depends on the time the commands run, so replaying the journal wouldn't restore the network
+            out.println("Error: --recovery can't be used with --journal.");
+            return;
+        }
+
         Gossipers gossipers;
         try {
-            gossipers = new Gossipers(Integer.parseUnsignedInt(args[0]), 100);
+            gossipers = new Gossipers(Integer.parseUnsignedInt(args[0]), maxGossipers, mode, out);
         } catch (NumberFormatException e) {
-            System.out.println("Error: CLI argument m (max messages until gossiper is tired) must be an unsigned integer number.");
+            out.println("Error: CLI argument m (max messages until gossiper is tired) must be an unsigned integer number.");
             return;
         } catch (ArrayIndexOutOfBoundsException e) {
-            System.out.println("Error: CLI argument m (max messages until gossiper is tired) must be passed to program.");
+            out.println("Error: CLI argument m (max messages until gossiper is tired) must be passed to program.");
+            return;
+        }
+
+        gossipers.maxDeliveries = maxDeliveries;
+        gossipers.recovery = recovery;
+
+        if (plugins != null) {
+            try {
+                int added = gossipers.types.loadPlugins(Path.of(plugins));
+                out.println("Loaded " + added + " gossiper types from \"" + plugins + "\".");
+            } catch (IOException | IllegalArgumentException e) {
+                out.println("Error: can't load plugins from \"" + plugins + "\": " + e.getMessage() + ".");
+                return;
+            }
+        }
+
+        if (metrics) {
+            gossipers.metrics.setEnabled(true);
+            try {
+                gossipers.metrics.register("ru.hse.javaprogramming:type=Metrics");
+            } catch (JMException e) {
+                out.println("Error: can't register metrics in JMX: " + e.getMessage() + ".");
+            }
+        }
+
+        if (cluster != null) {
+            if (journalDir != null || port != null) {
+                out.println("Error: --cluster can't be used with --journal or --server.");
+                return;
+            }
+            if (shard >= cluster.length) {
+                out.println("Error: --shard must be less than the amount of ports in --cluster.");
+                return;
+            }
+
+            runShard(shard, cluster, batch, gossipers);
+            return;
+        }
+
+        if (journalDir == null) {
+            run(batch, port, mode, gossipers);
+            return;
+        }
+
+        try (Journal journal = new Journal(Path.of(journalDir))) {
+            long replayed = journal.recover(gossipers, cmd -> execute(cmd, gossipers));
+            out.println("Recovered " + gossipers.gossipersSet.size() + " gossipers, replayed " + replayed
+                    + " commands from \"" + journalDir + "\".");
+            gossipers.setJournal(journal);
+            run(batch, port, mode, gossipers);
+        } catch (IOException e) {
+            out.println("Error: journal \"" + journalDir + "\" failed: " + e.getMessage() + ".");
+        } finally {
+            gossipers.setJournal(null);
+        }
+    }
+
+    /**
+     * Runs the command loop: a server if port isn't null, else interactive if batch is null, else from the script.
+     * @param batch file with commands, empty for stdin, null for interactive mode
+     * @param port port to serve the commands on, or null
+     * @param mode propagation mode of the networks created by the server
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    private static void run(String batch, Integer port, PropagationMode mode, Gossipers gossipers) {
+        if (port != null) {
+            serve(port, mode, gossipers);
             return;
         }
 
-        iohandler(gossipers);
+        if (batch == null) {
+            iohandler(gossipers);
+            return;
+        }
+
+        try (InputStream in = batch.isEmpty() ? System.in : new FileInputStream(batch)) {
+            batchHandler(in, gossipers);
+        } catch (IOException e) {
+            gossipers.out.println("Error: can't read commands: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs one shard of a partitioned network: the command loop, then serving the other shards until the process
+     * is stopped, unless the command loop has ended with quit.
+     * @param index index of the shard
+     * @param ports ports of all the shards
+     * @param batch file with commands, empty for stdin, null for interactive mode
+     * @param gossipers network of the shard
+     */
+    private static void runShard(int index, int[] ports, String batch, Gossipers gossipers) {
+        OutputSink out = gossipers.out;
+
+        try (Shard shard = new Shard(gossipers, index, ports)) {
+            out.println("Shard " + index + " of " + ports.length + " is listening on localhost:" + ports[index] + ".");
+
+            if (batch == null) {
+                iohandler(shard::execute, out);
+            } else {
+                try (InputStream in = batch.isEmpty() ? System.in : new FileInputStream(batch)) {
+                    batchHandler(in, shard::execute, out);
+                }
+            }
+
+            if (!shard.hasQuit()) {
+                out.println("Serving the other shards until the process is stopped.");
+                out.flush();
+                shard.awaitClose();
+            }
+        } catch (IOException e) {
+            out.println("Error: shard failed: " + e.getMessage() + ".");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Serves the commands over TCP until the process is stopped.
+     * @param port port to listen on localhost
+     * @param mode propagation mode of the networks created by clients
+     * @param gossipers network the connections start at, hosted as "default"
+     */
+    private static void serve(int port, PropagationMode mode, Gossipers gossipers) {
+        OutputSink out = gossipers.out;
+
+        try (Networks networks = new Networks();
+             GossipServer server = new GossipServer(networks, "default", port, gossipers.maxMoves,
+                     gossipers.maxGossipers, mode)) {
+            networks.add("default", gossipers);
+            out.println("Listening on localhost:" + server.port() + ".");
+            out.flush();
+            server.run();
+        } catch (IOException e) {
+            out.println("Error: server failed: " + e.getMessage() + ".");
+        }
     }
 
     /**
      * Handles user command input.
+     * @param gossipers Gossipers object (gossipers list)
      */
     public static void iohandler(Gossipers gossipers) {
+        iohandler(cmd -> execute(cmd, gossipers), gossipers.out);
+    }
+
+    /**
+     * Handles user command input.
+     * @param commands runs a command, false if the command is quit
+     * @param out sink to print to
+     */
+    private static void iohandler(Predicate<List<String>> commands, OutputSink out) {
         Scanner scanner = new Scanner(System.in);
+        CommandTokenizer tokenizer = new CommandTokenizer();
         String input;
 
         while (true) {
-            System.out.println("Waiting for input... type \"help\" to see info about commands.");
-            System.out.print("> ");
+            out.println("Waiting for input... type \"help\" to see info about commands.");
+            out.print("> ");
+            out.flush();
 
             if (!scanner.hasNext()) {
-                quit();
+                quit(out);
                 return;
             }
 
             input = scanner.nextLine();
 
-            List<String> cmd = parseCommand(input);
+            if (!commands.test(tokenizer.tokenize(input))) {
+                return;
+            }
 
-            try {
-                switch (cmd.get(0)) {
-                    case "create" -> create(cmd.get(1), cmd.get(2), gossipers);
-                    case "link" -> link(cmd.get(1), cmd.get(2), gossipers);
-                    case "unlink" -> unlink(cmd.get(1), cmd.get(2), gossipers);
-                    case "message" -> message(cmd.get(1), cmd.get(2), gossipers);
-                    case "gossips" -> gossips(gossipers);
-                    case "listeners" -> listeners(cmd.get(1), gossipers);
-                    case "about" -> about();
-                    case "help" -> help();
-                    case "quit" -> {
-                        quit();
-                        return;
-                    }
-                    default -> System.out.println("Error: unknown command.");
+            out.flush();
+        }
+    }
+
+    /**
+     * Handles commands from a script: no prompts, output is flushed only when the buffer is full.
+     * Prints the amount of commands per second in the end.
+     * @param in stream to read commands from, one per line
+     * @param gossipers Gossipers object (gossipers list)
+     * @throws IOException if the commands can't be read
+     */
+    public static void batchHandler(InputStream in, Gossipers gossipers) throws IOException {
+        batchHandler(in, cmd -> execute(cmd, gossipers), gossipers.out);
+    }
+
+    /**
+     * Handles commands from a script, see {@link #batchHandler(InputStream, Gossipers)}.
+     * @param in stream to read commands from, one per line
+     * @param commands runs a command, false if the command is quit
+     * @param out sink to print to
+     * @throws IOException if the commands can't be read
+     */
+    private static void batchHandler(InputStream in, Predicate<List<String>> commands, OutputSink out)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in), 1 << 20);
+        CommandTokenizer tokenizer = new CommandTokenizer();
+        long count = 0;
+        long start = System.nanoTime();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            ++count;
+
+            if (!commands.test(tokenizer.tokenize(line))) {
+                break;
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println("Done: " + count + " commands in " + String.format("%.3f", seconds)
+                + " s (" + String.format("%.0f", count / Math.max(seconds, 1e-9)) + " commands/sec).");
+    }
+
+    /**
+     * Runs one command. If the network is journaled, well-formed commands changing it are journaled before they run.
+     * Malformed ones only print an error, so they are left out of the journal. Wrong arguments a handler rejects
+     * with an exception are printed as errors too, the next command still runs. A create of a type taking a seed
+     * gets a random seed first if it has none, so replaying the journal makes the same gossiper.
+     * @param cmd command name and its arguments
+     * @param gossipers Gossipers object (gossipers list)
+     * @return false if the command is quit, else true
+     */
+    public static boolean execute(List<String> cmd, Gossipers gossipers) {
+        OutputSink out = gossipers.out;
+        Journal journal = gossipers.journal;
+        boolean timed = gossipers.metrics.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+
+        try {
+            if (journal != null && Journal.isMutating(cmd.get(0)) && isWellFormed(cmd, gossipers)) {
+                cmd = withSeed(cmd, gossipers);
+                journal.append(cmd);
+            }
+
+            switch (cmd.get(0)) {
+                case "create" -> create(cmd.get(1), cmd.get(2), parseParams(cmd, 3, out), gossipers);
+                case "remove" -> remove(cmd.get(1), gossipers);
+                case "link" -> link(cmd.get(1), cmd.get(2), gossipers);
+                case "linkall" -> linkAll(cmd.subList(1, cmd.size()), gossipers);
+                case "linkfile" -> linkFile(cmd.get(1), gossipers);
+                case "unlink" -> unlink(cmd.get(1), cmd.get(2), gossipers);
+                case "message" -> message(cmd.get(1), cmd.get(2), gossipers);
+                case "messages" -> messages(cmd.subList(1, cmd.size()), gossipers);
+                case "estimate" -> estimate(cmd.get(1), cmd.get(2), gossipers);
+                case "gossips" -> gossips(gossipers);
+                case "save" -> save(cmd.get(1), gossipers);
+                case "load" -> load(cmd.get(1), gossipers);
+                case "listeners" -> listeners(cmd.get(1), gossipers);
+                case "stats" -> stats(cmd.subList(1, cmd.size()), gossipers);
+                case "about" -> about(out);
+                case "help" -> help(out);
+                case "quit" -> {
+                    quit(out);
+                    return false;
+                }
+                default -> {
+                    out.println("Error: unknown command.");
+                    return true;
                 }
-            } catch (IndexOutOfBoundsException e) {
-                System.out.println("Error: incorrect arguments for command \"" + cmd.get(0) + "\".");
             }
+
+            if (timed) {
+                gossipers.metrics.command(cmd.get(0), System.nanoTime() - start);
+            }
+
+            if (journal != null) {
+                // a loaded file isn't in the journal, so the loaded state goes to a snapshot right away
+                if (cmd.get(0).equals("load") || cmd.get(0).equals("linkfile")) {
+                    journal.compact(gossipers);
+                } else {
+                    journal.compactIfNeeded(gossipers);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            out.println("Error: incorrect arguments for command \"" + cmd.get(0) + "\".");
+        } catch (InvalidPathException e) {
+            out.println("Error: wrong path \"" + e.getInput() + "\": " + e.getReason() + ".");
+        } catch (IllegalArgumentException e) {
+            out.println("Error: " + e.getMessage() + ".");
+        } catch (IOException e) {
+            out.println("Error: journal failed: " + e.getMessage() + ".");
         }
+
+        return true;
     }
 
     /**
@@ -76,21 +446,68 @@ public class GossipsMain {
      * @return List of arguments
      */
     public static List<String> parseCommand(String line) {
-        List<String> result = new ArrayList<>();
-        int start = 0;
-        boolean inQuotes = false;
+        return new ArrayList<>(new CommandTokenizer().tokenize(line));
+    }
+
+    /**
+     * Checks the arguments of a command changing the network the way the command itself does,
+     * without running it or printing anything.
+     * @param cmd command name and its arguments
+     * @param gossipers Gossipers object (gossipers list)
+     * @return true if the command has the right amount of arguments, and a known type and "key=value" parameters
+     *         for create
+     */
+    static boolean isWellFormed(List<String> cmd, Gossipers gossipers) {
+        int args = cmd.size() - 1;
+
+        return switch (cmd.get(0)) {
+            case "create" -> args >= 2 && gossipers.types.get(cmd.get(2)) != null
+                    && cmd.stream().skip(3).allMatch(param -> param.indexOf('=') >= 1);
+            case "remove", "linkfile" -> args == 1;
+            case "link", "unlink", "message" -> args == 2;
+            case "linkall", "messages" -> args >= 2 && args % 2 == 0;
+            default -> false;
+        };
+    }
 
-        for (int cur = 0; cur < line.length(); cur++) {
-            if (line.charAt(cur) == '\"') {
-                inQuotes = !inQuotes;
-            } else if (line.charAt(cur) == ' ' && !inQuotes) {
-                result.add(line.substring(start, cur).replace("\"", ""));
-                start = cur + 1;
+    /**
+     * Adds a random "seed=n" parameter to a well-formed create of a type taking a seed, if it has no seed.
+     * @param cmd command name and its arguments
+     * @param gossipers Gossipers object (gossipers list)
+     * @return the command with a seed, or the same command if it needs none
+     */
+    static List<String> withSeed(List<String> cmd, Gossipers gossipers) {
+        if (!cmd.get(0).equals("create") || !gossipers.types.get(cmd.get(2)).parameters().contains("seed")
+                || cmd.stream().skip(3).anyMatch(param -> param.startsWith("seed="))) {
+            return cmd;
+        }
+
+        List<String> seeded = new ArrayList<>(cmd);
+        seeded.add("seed=" + ThreadLocalRandom.current().nextLong());
+        return seeded;
+    }
+
+    /**
+     * Parses "key=value" arguments of a command.
+     * @param cmd command name and its arguments
+     * @param from index of the first parameter
+     * @param out sink to print errors to
+     * @return parameters in the order given, or null if an argument isn't "key=value"
+     */
+    public static Map<String, String> parseParams(List<String> cmd, int from, OutputSink out) {
+        Map<String, String> params = new LinkedHashMap<>();
+
+        for (int i = from; i < cmd.size(); i++) {
+            int eq = cmd.get(i).indexOf('=');
+            if (eq < 1) {
+                out.println("Error: parameter \"" + cmd.get(i) + "\" must look like key=value.");
+                return null;
             }
+
+            params.put(cmd.get(i).substring(0, eq), cmd.get(i).substring(eq + 1));
         }
 
-        result.add(line.substring(start).replace("\"", ""));
-        return result;
+        return params;
     }
 
     /**
@@ -101,14 +518,26 @@ public class GossipsMain {
      * 3. spammer
      * 4. simple
      * 5. deduplicator
-     * Max amount of gossipers = 100.
+     * Max amount of gossipers = 100 by default.
      *
      * @param name gossiper name
      * @param type gossiper type
+     * @param params type parameters, null if they couldn't be parsed
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void create(String name, String type, Map<String, String> params, Gossipers gossipers) {
+        if (params != null) {
+            gossipers.create(name, type, params);
+        }
+    }
+
+    /**
+     * Remove the gossiper by name
+     * @param name gossiper name
      * @param gossipers Gossipers object (gossipers list)
      */
-    public static void create(String name, String type, Gossipers gossipers) {
-        gossipers.create(name, type);
+    public static void remove(String name, Gossipers gossipers) {
+        gossipers.remove(name);
     }
 
     /**
@@ -121,6 +550,29 @@ public class GossipsMain {
         gossipers.linkOrUnlink(name1, name2, true);
     }
 
+    /**
+     * Links gossipers-listeners to gossipers-spreaders in bulk
+     * @param names names of the spreader and the listener of every link one after another
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void linkAll(List<String> names, Gossipers gossipers) {
+        if (names.isEmpty() || names.size() % 2 != 0) {
+            gossipers.out.println("Error: incorrect arguments for command \"linkall\".");
+            return;
+        }
+
+        gossipers.linkAll(Link.of(names));
+    }
+
+    /**
+     * Links gossipers-listeners to gossipers-spreaders in bulk from an edge list file
+     * @param file file name
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void linkFile(String file, Gossipers gossipers) {
+        gossipers.linkFile(file);
+    }
+
     /**
      * Unlinks gossiper-listener from gossiper-spreader
      * @param name1 gossiper-spreader
@@ -141,6 +593,30 @@ public class GossipsMain {
         gossipers.message(name, message);
     }
 
+    /**
+     * Sends many messages at once
+     * @param tokens gossiper name and message text of every message one after another
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void messages(List<String> tokens, Gossipers gossipers) {
+        if (tokens.isEmpty() || tokens.size() % 2 != 0) {
+            gossipers.out.println("Error: incorrect arguments for command \"messages\".");
+            return;
+        }
+
+        gossipers.messageAll(Message.of(tokens));
+    }
+
+    /**
+     * Predicts the cost of a message without sending it
+     * @param name gossiper name
+     * @param message message text
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void estimate(String name, String message, Gossipers gossipers) {
+        gossipers.estimate(name, message);
+    }
+
     /**
      * Alphabetically output the names of gossipers
      * @param gossipers Gossipers object (gossipers list)
@@ -158,18 +634,86 @@ public class GossipsMain {
         gossipers.listeners(name);
     }
 
+    /**
+     * Print or control the metrics: no args prints them, "on", "off" and "reset" control recording,
+     * a gossiper name prints its counters, "export file" writes them in the text format.
+     * @param args arguments of the stats command
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void stats(List<String> args, Gossipers gossipers) {
+        OutputSink out = gossipers.out;
+        Metrics metrics = gossipers.metrics;
+
+        if (args.isEmpty()) {
+            metrics.print(out);
+            return;
+        }
+
+        switch (args.get(0)) {
+            case "on" -> {
+                metrics.setEnabled(true);
+                out.println("Metrics are on.");
+            }
+            case "off" -> {
+                metrics.setEnabled(false);
+                out.println("Metrics are off.");
+            }
+            case "reset" -> {
+                metrics.reset();
+                out.println("Metrics are reset.");
+            }
+            case "export" -> {
+                String file = args.get(1);
+                try (Writer writer = Files.newBufferedWriter(Path.of(file))) {
+                    metrics.writeText(writer);
+                    out.println("Exported metrics to \"" + file + "\".");
+                } catch (IOException e) {
+                    out.println("Error: can't export metrics to \"" + file + "\": " + e.getMessage() + ".");
+                }
+            }
+            default -> {
+                Gossiper gossiper = gossipers.findByName(args.get(0));
+                if (gossiper == null) {
+                    out.println("Error: name \"" + args.get(0) + "\" not found.");
+                    return;
+                }
+                out.println(gossiper.getName() + ": " + gossiper.getMetrics());
+            }
+        }
+    }
+
+    /**
+     * Save the gossip network to a file
+     * @param file file name
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void save(String file, Gossipers gossipers) {
+        gossipers.save(file);
+    }
+
+    /**
+     * Load the gossip network from a file
+     * @param file file name
+     * @param gossipers Gossipers object (gossipers list)
+     */
+    public static void load(String file, Gossipers gossipers) {
+        gossipers.load(file);
+    }
+
     /**
      * Exit from the app.
+     * @param out sink to print to
      */
-    public static void quit() {
-        System.out.println("See you again!");
+    public static void quit(OutputSink out) {
+        out.println("See you again!");
     }
 
     /**
      * Author's credentials.
+     * @param out sink to print to
      */
-    public static void about() {
-        System.out.println("""
+    public static void about(OutputSink out) {
+        out.println("""
                 Работу выполнил:
                 Студент группы БПИ211-2
                 Шубин Никита Васильевич.
@@ -178,10 +722,11 @@ public class GossipsMain {
 
     /**
      * Prints out all possible commands and how to use them.
+     * @param out sink to print to
      */
-    public static void help() {
-        System.out.println("""
-                сreate      <name>  <type>
+    public static void help(OutputSink out) {
+        out.println("""
+                сreate      <name>  <type> [key=value ...]
                                 Создать экземпляр сплетницы с указанным
                                 именем.
                                 Возможные значения type:
@@ -190,14 +735,38 @@ public class GossipsMain {
                                 3. spammer
                                 4. simple
                                 5. deduplicator
-                                Максимальное количество сплетниц – 100. При
+                                и типы из плагинов (--plugins=<папка>)
+                                Параметры deduplicator:
+                                store=strings|hash64|hash128|lru|bloom
+                                capacity=<n>, window=<мс> (для lru)
+                                expected=<n>, fpp=<вероятность> (для bloom)
+                                Параметры censor:
+                                allow=<слово>,<слово>,... (по умолчанию java)
+                                deny=<слово>,<слово>,...
+                                Параметры spammer:
+                                min=<n>, max=<n> (число повторов, 2 и 5
+                                по умолчанию), seed=<n> (зерно генератора),
+                                batch=true|false (повторы одной доставкой)
+                                Максимальное количество сплетниц – 100 (меняется
+                                аргументом --max-gossipers=n). При
                                 превышении максимального числа сплетниц
                                 приложение печатает сообщение об ошибке и
                                 ожидает ввод новой команды
+                remove      <name>
+                                Удалить сплетницу с именем <name>, она
+                                перестаёт слушать остальных сплетниц
                 link        <name1> <name2>
                                 Зарегистрировать сплетницу с именем
                                 <name2> слушателем сообщений от сплетницы
                                 с именем <name1>
+                linkall     <name1> <name2> [<name1> <name2> ...]
+                                Связать много пар сплетниц разом: все
+                                связи проверяются на циклы одним проходом,
+                                печатаются только отвергнутые связи
+                linkfile    <file>
+                                То же для файла со списком связей: по
+                                одной на строку, "<name1>,<name2>" или
+                                <name1> <name2>; строки с # пропускаются
                 unlink      <name1> <name2>
                                 Убрать сплетницу с именем <name2> из
                                 слушателей сообщений от сплетницы с
@@ -205,6 +774,16 @@ public class GossipsMain {
                 message     <name>  <message>
                                 Отправить указанное сообщение сплетнице с
                                 именем <name>
+                messages    <name>  <message> [<name> <message> ...]
+                                Отправить много сообщений разом: каждая
+                                сплетница получает все дошедшие до неё
+                                сообщения одной пачкой, после всех своих
+                                источников
+                estimate    <name>  <message>
+                                Оценить, сколько сплетниц получат
+                                сообщение и сколько будет доставок, не
+                                отправляя его. С --max-deliveries=n
+                                сообщения дороже n доставок отвергаются
                 gossips
                                 Напечатать имена всех имеющихся сплетниц в
                                 алфавитном порядке;
@@ -212,6 +791,18 @@ public class GossipsMain {
                                 Напечатать имена всех слушателей сообщений
                                 от сплетницы с именем <name> в алфавитном
                                 порядке
+                save        <file>
+                                Сохранить всех сплетниц, их связи и
+                                состояние в бинарный файл
+                load        <file>
+                                Заменить всех сплетниц сохранёнными в
+                                файле командой save
+                stats       [on|off|reset|<name>|export <file>]
+                                Напечатать счётчики и гистограммы
+                                распространения сплетен; включить,
+                                выключить или сбросить их; напечатать
+                                счётчики сплетницы <name>; выгрузить
+                                всё в текстовом формате в файл
                 quit
                                 Выйти из приложения
                 about
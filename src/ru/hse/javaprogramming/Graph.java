@@ -0,0 +1,554 @@
+package ru.hse.javaprogramming;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Graph stores the links of a network: gossipers get dense int ids, listeners and talkers of a gossiper
+ * are growable int arrays of ids. Whether a link exists is answered by a hash set of links.
+ * <p>
+ * Listeners of a gossiper are kept sorted by name, so gossips are sent alphabetically without comparing names;
+ * names are only compared when a link is added. Talkers are not sorted.
+ * <p>
+ * The graph also caches the {@link PropagationPlan}s of the recent sources of gossips,
+ * a plan is dropped when a link of one of its gossipers changes.
+ * <p>
+ * Not thread-safe: the graph must not change while a cascade is running.
+ * {@link Gossipers} waits for the cascades it submitted before changing the links, see {@link Gossipers#submit}.
+ */
+public class Graph {
+    private static final int[] NO_IDS = new int[0];
+
+    private static final Comparator<Gossiper> BY_NAME = Comparator.comparing(Gossiper::getName);
+
+    /**
+     * Cached plans have at most this many nodes and targets in total, see {@link PropagationPlan#weight()}.
+     * The least recently used plans are dropped first, the latest plan is kept even if it is bigger.
+     */
+    private static final long MAX_PLAN_WEIGHT = 1 << 22;
+
+    /**
+     * Gossipers by id, null for free ids.
+     */
+    private Gossiper[] nodes = new Gossiper[16];
+
+    /**
+     * Listener ids of every gossiper sorted by name, only the first listenerCount[id] are used.
+     */
+    private int[][] listeners = new int[16][];
+    private int[] listenerCount = new int[16];
+
+    /**
+     * Talker ids of every gossiper in no order, only the first talkerCount[id] are used.
+     */
+    private int[][] talkers = new int[16][];
+    private int[] talkerCount = new int[16];
+
+    /**
+     * Ids of removed gossipers, given to new ones first.
+     */
+    private int[] free = new int[16];
+    private int freeCount;
+
+    /**
+     * Ids below nextId have been given out.
+     */
+    private int nextId;
+
+    private final LinkSet links = new LinkSet();
+
+    /**
+     * Compiled plans by source gossiper, least recently used first.
+     */
+    private final Map<Gossiper, PropagationPlan> plans = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Total weight of the cached plans.
+     */
+    private long planWeight;
+
+    /**
+     * Array indexed by id for compiling a plan, all zeros between compiles, see {@link #scratch()}.
+     */
+    private int[] scratch = new int[16];
+
+    /**
+     * Gives the gossiper an id, the gossiper has no links yet.
+     * @param gossiper gossiper that isn't in the graph
+     */
+    public void add(Gossiper gossiper) {
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            id = nextId++;
+            if (id == nodes.length) {
+                int capacity = nodes.length * 2;
+                nodes = Arrays.copyOf(nodes, capacity);
+                listeners = Arrays.copyOf(listeners, capacity);
+                listenerCount = Arrays.copyOf(listenerCount, capacity);
+                talkers = Arrays.copyOf(talkers, capacity);
+                talkerCount = Arrays.copyOf(talkerCount, capacity);
+            }
+        }
+
+        nodes[id] = gossiper;
+        listeners[id] = NO_IDS;
+        talkers[id] = NO_IDS;
+        gossiper.id = id;
+    }
+
+    /**
+     * Removes the gossiper with all her links and frees her id.
+     * @param gossiper gossiper in the graph
+     */
+    public void remove(Gossiper gossiper) {
+        int id = gossiper.id;
+        dropPlans(id);
+
+        for (int i = 0; i < talkerCount[id]; i++) {
+            int talker = talkers[id][i];
+            removeListener(talker, id);
+            links.remove(talker, id);
+        }
+        for (int i = 0; i < listenerCount[id]; i++) {
+            int listener = listeners[id][i];
+            removeTalker(listener, id);
+            links.remove(id, listener);
+        }
+
+        nodes[id] = null;
+        listeners[id] = null;
+        listenerCount[id] = 0;
+        talkers[id] = null;
+        talkerCount[id] = 0;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeCount++] = id;
+        gossiper.id = -1;
+    }
+
+    /**
+     * Removes all the gossipers and links.
+     */
+    public void clear() {
+        for (int id = 0; id < nextId; id++) {
+            if (nodes[id] != null) {
+                nodes[id].id = -1;
+            }
+        }
+
+        Arrays.fill(nodes, 0, nextId, null);
+        Arrays.fill(listeners, 0, nextId, null);
+        Arrays.fill(listenerCount, 0, nextId, 0);
+        Arrays.fill(talkers, 0, nextId, null);
+        Arrays.fill(talkerCount, 0, nextId, 0);
+        freeCount = 0;
+        nextId = 0;
+        links.clear();
+        clearPlans();
+    }
+
+    /**
+     * Check if the listener listens to the talker
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return true if the link exists
+     */
+    public boolean hasLink(Gossiper talker, Gossiper listener) {
+        return links.contains(talker.id, listener.id);
+    }
+
+    /**
+     * Adds a link, without any cycle checks.
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return false if the link already exists
+     */
+    public boolean link(Gossiper talker, Gossiper listener) {
+        if (!links.add(talker.id, listener.id)) {
+            return false;
+        }
+        dropPlans(talker.id);
+
+        int count = listenerCount[talker.id];
+        int position = -search(listeners[talker.id], count, listener.getName()) - 1;
+        listeners[talker.id] = insert(listeners[talker.id], count, position, listener.id);
+        ++listenerCount[talker.id];
+
+        talkers[listener.id] = insert(talkers[listener.id], talkerCount[listener.id], talkerCount[listener.id],
+                talker.id);
+        ++talkerCount[listener.id];
+        return true;
+    }
+
+    /**
+     * Removes a link.
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return false if there is no such link
+     */
+    public boolean unlink(Gossiper talker, Gossiper listener) {
+        if (!links.remove(talker.id, listener.id)) {
+            return false;
+        }
+        dropPlans(talker.id);
+
+        removeListener(talker.id, listener.id);
+        removeTalker(listener.id, talker.id);
+        return true;
+    }
+
+    /**
+     * Adds links in bulk: appends them and sorts the listeners by name once in the end.
+     * Repeated links are skipped.
+     * @param gossipers gossipers in the graph
+     * @param pairs indexes in gossipers, talker and listener of every link one after another
+     */
+    public void linkAll(List<Gossiper> gossipers, int[] pairs) {
+        boolean[] touched = new boolean[nextId];
+
+        for (int i = 0; i < pairs.length; i += 2) {
+            int talker = gossipers.get(pairs[i]).id;
+            int listener = gossipers.get(pairs[i + 1]).id;
+            if (!links.add(talker, listener)) {
+                continue;
+            }
+
+            listeners[talker] = insert(listeners[talker], listenerCount[talker], listenerCount[talker], listener);
+            ++listenerCount[talker];
+            talkers[listener] = insert(talkers[listener], talkerCount[listener], talkerCount[listener], talker);
+            ++talkerCount[listener];
+            touched[talker] = true;
+        }
+        clearPlans();
+
+        for (int id = 0; id < touched.length; id++) {
+            if (touched[id]) {
+                sortByName(id);
+            }
+        }
+    }
+
+    /**
+     * Plan of the gossips sent by a gossiper, compiled on the first use and cached until the links change.
+     * @param source gossiper in the graph
+     * @return plan of the gossipers reachable from the source
+     */
+    public PropagationPlan plan(Gossiper source) {
+        PropagationPlan plan = plans.get(source);
+        if (plan == null) {
+            plan = new PropagationPlan(this, source);
+            plans.put(source, plan);
+            planWeight += plan.weight();
+
+            Iterator<PropagationPlan> eldest = plans.values().iterator();
+            while (planWeight > MAX_PLAN_WEIGHT && plans.size() > 1) {
+                planWeight -= eldest.next().weight();
+                eldest.remove();
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Drops the cached plans going through a gossiper.
+     */
+    private void dropPlans(int id) {
+        Iterator<PropagationPlan> cached = plans.values().iterator();
+        while (cached.hasNext()) {
+            PropagationPlan plan = cached.next();
+            if (plan.contains(id)) {
+                planWeight -= plan.weight();
+                cached.remove();
+            }
+        }
+    }
+
+    private void clearPlans() {
+        plans.clear();
+        planWeight = 0;
+    }
+
+    private void sortByName(int id) {
+        int[] ids = listeners[id];
+        int count = listenerCount[id];
+
+        boolean sorted = true;
+        for (int i = 1; i < count && sorted; i++) {
+            sorted = nodes[ids[i - 1]].getName().compareTo(nodes[ids[i]].getName()) < 0;
+        }
+        if (sorted) {
+            return;
+        }
+
+        Gossiper[] byName = new Gossiper[count];
+        for (int i = 0; i < count; i++) {
+            byName[i] = nodes[ids[i]];
+        }
+        Arrays.sort(byName, BY_NAME);
+        for (int i = 0; i < count; i++) {
+            ids[i] = byName[i].id;
+        }
+    }
+
+    /**
+     * Binary search of a name among listener ids sorted by name.
+     * @return index of the name, or -(insertion point) - 1 if it's absent
+     */
+    private int search(int[] ids, int count, String name) {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = nodes[ids[mid]].getName().compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private static int[] insert(int[] ids, int count, int position, int id) {
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(4, count + (count >> 1)));
+        }
+
+        System.arraycopy(ids, position, ids, position + 1, count - position);
+        ids[position] = id;
+        return ids;
+    }
+
+    private void removeListener(int talker, int listener) {
+        int[] ids = listeners[talker];
+        int count = listenerCount[talker];
+        int position = search(ids, count, nodes[listener].getName());
+
+        System.arraycopy(ids, position + 1, ids, position, count - position - 1);
+        --listenerCount[talker];
+    }
+
+    private void removeTalker(int listener, int talker) {
+        int[] ids = talkers[listener];
+        int count = talkerCount[listener];
+
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == talker) {
+                ids[i] = ids[count - 1];
+                --talkerCount[listener];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gossiper by id
+     * @param id id of a gossiper in the graph
+     * @return the gossiper
+     */
+    public Gossiper node(int id) {
+        return nodes[id];
+    }
+
+    /**
+     * Listener ids of the gossiper sorted by name, the array may be longer than {@link #listenerCount(Gossiper)}.
+     * The array is owned by the graph and must not be changed.
+     * @param gossiper gossiper in the graph
+     * @return listener ids
+     */
+    int[] listenerIds(Gossiper gossiper) {
+        return listeners[gossiper.id];
+    }
+
+    /**
+     * Array of zeros indexed by id, lent to a plan being compiled so a compile costs only as much as its plan.
+     * The plan must zero the entries it has set before the next compile.
+     * @return array at least {@link #idBound()} long
+     */
+    int[] scratch() {
+        if (scratch.length < nextId) {
+            scratch = new int[nodes.length];
+        }
+        return scratch;
+    }
+
+    /**
+     * Bound of the ids, for arrays indexed by id
+     * @return every id in the graph is below it
+     */
+    int idBound() {
+        return nextId;
+    }
+
+    public int listenerCount(Gossiper gossiper) {
+        return listenerCount[gossiper.id];
+    }
+
+    /**
+     * Talker ids of the gossiper in no order, the array may be longer than {@link #talkerCount(Gossiper)}.
+     * The array is owned by the graph and must not be changed.
+     * @param gossiper gossiper in the graph
+     * @return talker ids
+     */
+    int[] talkerIds(Gossiper gossiper) {
+        return talkers[gossiper.id];
+    }
+
+    public int talkerCount(Gossiper gossiper) {
+        return talkerCount[gossiper.id];
+    }
+
+    /**
+     * Amount of links in the graph
+     * @return amount of links
+     */
+    public long linkCount() {
+        return links.size();
+    }
+
+    /**
+     * Name-sorted view of the listeners of a gossiper, it sees the later changes of the graph.
+     * @param gossiper gossiper in the graph
+     * @return listeners in alphabetical order
+     */
+    public List<Gossiper> listeners(Gossiper gossiper) {
+        return new ListenersView(gossiper.id);
+    }
+
+    private final class ListenersView extends AbstractList<Gossiper> implements RandomAccess {
+        private final int id;
+
+        private ListenersView(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Gossiper get(int index) {
+            if (index < 0 || index >= listenerCount[id]) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return nodes[listeners[id][index]];
+        }
+
+        @Override
+        public int size() {
+            return listenerCount[id];
+        }
+    }
+
+    /**
+     * Set of links as (talker id, listener id) pairs packed into longs, open addressing with linear probing.
+     */
+    private static final class LinkSet {
+        private static final long EMPTY = -1;
+
+        private long[] table = newTable(64);
+        private int size;
+
+        private static long[] newTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+
+        private static long key(int talker, int listener) {
+            return (long) talker << 32 | (listener & 0xFFFFFFFFL);
+        }
+
+        private int slot(long key) {
+            return (int) MessageHash.mix(key) & (table.length - 1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(int talker, int listener) {
+            long key = key(talker, listener);
+            for (int i = slot(key); table[i] != EMPTY; i = (i + 1) & (table.length - 1)) {
+                if (table[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean add(int talker, int listener) {
+            if ((size + 1) * 3L > table.length * 2L) {
+                grow();
+            }
+
+            long key = key(talker, listener);
+            int i = slot(key);
+            for (; table[i] != EMPTY; i = (i + 1) & (table.length - 1)) {
+                if (table[i] == key) {
+                    return false;
+                }
+            }
+
+            table[i] = key;
+            ++size;
+            return true;
+        }
+
+        /**
+         * Removes a key and shifts back the keys after it, so no tombstones are needed.
+         */
+        boolean remove(int talker, int listener) {
+            long key = key(talker, listener);
+            int mask = table.length - 1;
+            int i = slot(key);
+            while (table[i] != key) {
+                if (table[i] == EMPTY) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+
+            int hole = i;
+            for (int j = (hole + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(table[j]);
+                // the key at j may fill the hole if its home slot isn't between the hole and j (cyclically)
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    table[hole] = table[j];
+                    hole = j;
+                }
+            }
+            table[hole] = EMPTY;
+            --size;
+            return true;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = newTable(old.length * 2);
+            for (long key : old) {
+                if (key != EMPTY) {
+                    int i = slot(key);
+                    while (table[i] != EMPTY) {
+                        i = (i + 1) & (table.length - 1);
+                    }
+                    table[i] = key;
+                }
+            }
+        }
+
+        void clear() {
+            table = newTable(64);
+            size = 0;
+        }
+    }
+}
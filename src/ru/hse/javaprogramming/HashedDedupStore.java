@@ -0,0 +1,142 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+
+/**
+ * HashedDedupStore keeps only 64 or 128-bit hashes of the messages in an open-addressing table of longs.
+ * Different messages are mistaken for each other only if their hashes collide.
+ */
+public class HashedDedupStore implements DedupStore {
+    /**
+     * Longs per remembered hash: 1 or 2.
+     */
+    private final int width;
+
+    /**
+     * Hashes, width longs per slot. A slot of zeros is empty.
+     */
+    private long[] table;
+
+    private int size = 0;
+
+    /**
+     * Constructor from hash size
+     * @param bits 64 or 128
+     */
+    public HashedDedupStore(int bits) {
+        if (bits != 64 && bits != 128) {
+            throw new IllegalArgumentException("hash bits must be 64 or 128");
+        }
+
+        this.width = bits / 64;
+        this.table = new long[16 * width];
+    }
+
+    @Override
+    public synchronized boolean add(Gossip gossip) {
+        long low = gossip.hash();
+        long high = width == 2 ? gossip.secondHash() : 0;
+        if (low == 0 && high == 0) {
+            low = 1;
+        }
+
+        if (!insert(table, low, high)) {
+            return false;
+        }
+
+        if (++size * 3 > slots() * 2) {
+            grow();
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(Gossip gossip) {
+        long low = gossip.hash();
+        long high = width == 2 ? gossip.secondHash() : 0;
+        if (low == 0 && high == 0) {
+            low = 1;
+        }
+
+        int mask = slots() - 1;
+        int slot = (int) MessageHash.mix(low) & mask;
+        while (true) {
+            int i = slot * width;
+            if (table[i] == 0 && (width == 1 || table[i + 1] == 0)) {
+                return false;
+            }
+            if (table[i] == low && (width == 1 || table[i + 1] == high)) {
+                return true;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slots() {
+        return table.length / width;
+    }
+
+    /**
+     * Puts the hash into the table.
+     * @return false if the hash is already there
+     */
+    private boolean insert(long[] table, long low, long high) {
+        int mask = table.length / width - 1;
+        int slot = (int) MessageHash.mix(low) & mask;
+
+        while (true) {
+            int i = slot * width;
+            if (table[i] == 0 && (width == 1 || table[i + 1] == 0)) {
+                table[i] = low;
+                if (width == 2) {
+                    table[i + 1] = high;
+                }
+                return true;
+            }
+
+            if (table[i] == low && (width == 1 || table[i + 1] == high)) {
+                return false;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+
+        for (int i = 0; i < old.length; i += width) {
+            long high = width == 2 ? old[i + 1] : 0;
+            if (old[i] != 0 || high != 0) {
+                insert(table, old[i], high);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void write(SnapshotOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeLongs(table);
+    }
+
+    @Override
+    public synchronized void read(SnapshotInput in) throws IOException {
+        int savedSize = in.readInt();
+        long[] savedTable = in.readLongs();
+        int slots = savedTable.length / width;
+        if (slots == 0 || savedTable.length % width != 0 || (slots & (slots - 1)) != 0 || savedSize > slots) {
+            throw new IOException("snapshot is corrupted");
+        }
+
+        size = savedSize;
+        table = savedTable;
+    }
+}
@@ -0,0 +1,98 @@
+package ru.hse.javaprogramming;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram counts values in power-of-two buckets, so recording is one striped increment per value.
+ * Percentiles are upper bounds of the buckets: exact within a factor of 2.
+ */
+public class Histogram {
+    /**
+     * Bucket 0 holds values up to 0, bucket i holds values in [2^(i-1); 2^i).
+     */
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    private static int bucket(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Counts a value
+     * @param value value to count
+     */
+    public void record(long value) {
+        buckets[bucket(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /**
+     * Upper bound of the values below the percentile
+     * @param p percentile in [0; 1]
+     * @return upper bound of the bucket the percentile falls into, not more than the maximum
+     */
+    public long percentile(double p) {
+        long n = count();
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : Math.min(i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1, max());
+            }
+        }
+
+        return max();
+    }
+
+    /**
+     * Forgets all the values, values recorded at the same time may be lost or half-counted.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * Short summary of the histogram
+     * @return count, mean, median, 99th percentile and maximum
+     */
+    @Override
+    public String toString() {
+        return "count=" + count() + " mean=" + String.format("%.2f", mean()) + " p50<=" + percentile(0.5)
+                + " p99<=" + percentile(0.99) + " max=" + max();
+    }
+}
@@ -0,0 +1,492 @@
+package ru.hse.javaprogramming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Journal is a write-ahead log of the commands that change the network.
+ * <p>
+ * The journal directory holds segments "journal-N.log" and snapshots "snapshot-N.bin",
+ * a snapshot N is the state after all the segments before N.
+ * Recovery loads the latest snapshot and replays the segments from its number on.
+ * <p>
+ * Appended commands are buffered and written with one fsync per group by a background thread,
+ * every syncMillis or as soon as the buffer is big enough. A crash loses at most the last syncMillis of commands.
+ * The buffer is swapped for an empty one before the write, so appending never waits for an fsync.
+ * When a segment grows over segmentBytes, a new segment is started and the old ones are folded into a snapshot
+ * in the background.
+ * <p>
+ * Record format: payload length, CRC32 of the payload, payload = amount of tokens, tokens as UTF-8 strings.
+ * A torn record at the end of a segment is dropped on recovery.
+ */
+public class Journal implements Closeable {
+    /**
+     * Commands that change the network and are written to the journal.
+     */
+    private static final Set<String> MUTATING = Set.of("create", "remove", "link", "linkall", "linkfile", "unlink", "message", "messages");
+
+    /**
+     * Buffered bytes that make the flusher write right away.
+     */
+    private static final int GROUP_BYTES = 1 << 20;
+
+    /**
+     * Default size of a segment that triggers compaction.
+     */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    /**
+     * Default longest time between fsyncs.
+     */
+    public static final long DEFAULT_SYNC_MILLIS = 10;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final long syncMillis;
+
+    private final Object lock = new Object();
+
+    /**
+     * Held while writing to the segment, so only one group is written at a time and the segment
+     * isn't replaced under a write. Taken before lock, never while holding it.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Records appended but not written yet, guarded by lock.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(GROUP_BYTES * 2);
+
+    /**
+     * Empty buffer swapped with pending by the write, guarded by lock.
+     */
+    private ByteBuffer spare = ByteBuffer.allocate(GROUP_BYTES * 2);
+
+    /**
+     * Segment being appended to, guarded by lock, replaced only while holding writeLock too.
+     */
+    private FileChannel segment;
+    private long segmentN;
+    private long segmentSize;
+
+    /**
+     * First failure of the flusher, guarded by lock. The journal refuses new commands after it.
+     */
+    private IOException failure;
+    private boolean closed;
+
+    private final Thread flusher;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the journal in the directory with the default segment size and fsync interval.
+     * @param dir journal directory
+     * @throws IOException if the directory can't be created
+     */
+    public Journal(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_MILLIS);
+    }
+
+    /**
+     * Opens the journal in the directory, creating the directory if needed.
+     * Call {@link #recover(Gossipers, Consumer)} before appending.
+     * @param dir journal directory
+     * @param segmentBytes size of a segment that triggers compaction
+     * @param syncMillis the longest time between fsyncs
+     * @throws IOException if the directory can't be created
+     */
+    public Journal(Path dir, long segmentBytes, long syncMillis) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.syncMillis = syncMillis;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Check if the command changes the network
+     * @param command command name
+     * @return true if the command is written to the journal
+     */
+    public static boolean isMutating(String command) {
+        return MUTATING.contains(command);
+    }
+
+    private Path segmentPath(long n) {
+        return dir.resolve(String.format("journal-%020d.log", n));
+    }
+
+    private Path snapshotPath(long n) {
+        return dir.resolve(String.format("snapshot-%020d.bin", n));
+    }
+
+    /**
+     * Files of the directory with the prefix and suffix by their number.
+     */
+    private TreeMap<Long, Path> list(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+                    } catch (NumberFormatException ignored) {
+                        // not a journal file
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Restores the network: loads the latest snapshot and replays the commands journaled after it.
+     * Then starts a new segment for the new commands.
+     * @param gossipers network to restore, its output is muted while recovering
+     * @param replay runs one journaled command
+     * @return amount of replayed commands
+     * @throws IOException if the journal can't be read or its latest snapshot can't be loaded
+     */
+    public long recover(Gossipers gossipers, Consumer<List<String>> replay) throws IOException {
+        TreeMap<Long, Path> snapshots = list("snapshot-", ".bin");
+        TreeMap<Long, Path> segments = list("journal-", ".log");
+        long from = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        long replayed = 0;
+
+        OutputSink out = gossipers.setOut(NullSink.INSTANCE);
+        try {
+            if (!snapshots.isEmpty()) {
+                Path snapshot = snapshots.lastEntry().getValue();
+                try {
+                    gossipers.loadSnapshot(snapshot);
+                } catch (IOException | RuntimeException e) {
+                    // replaying the segments after it would silently lose everything it holds
+                    throw new IOException("can't load snapshot \"" + snapshot.getFileName() + "\": " + e.getMessage(), e);
+                }
+            }
+
+            for (Path path : segments.tailMap(from).values()) {
+                replayed += replay(path, replay);
+            }
+        } finally {
+            gossipers.setOut(out);
+        }
+
+        synchronized (lock) {
+            openSegment(Math.max(from, segments.isEmpty() ? 0 : segments.lastKey() + 1));
+        }
+        flusher.start();
+        return replayed;
+    }
+
+    /**
+     * Replays the records of a segment, cutting a torn record at its end.
+     */
+    private long replay(Path path, Consumer<List<String>> replay) throws IOException {
+        long replayed = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 check = new CRC32();
+            int good = 0;
+
+            while (buffer.remaining() >= 2 * Integer.BYTES) {
+                int length = buffer.getInt();
+                int expected = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                check.reset();
+                check.update(payload.duplicate());
+                if ((int) check.getValue() != expected) {
+                    break;
+                }
+
+                replay.accept(decode(payload));
+                buffer.position(buffer.position() + length);
+                good = buffer.position();
+                ++replayed;
+            }
+
+            if (good < channel.size()) {
+                channel.truncate(good);
+            }
+        }
+
+        return replayed;
+    }
+
+    private static List<String> decode(ByteBuffer payload) {
+        int count = payload.getInt();
+        List<String> cmd = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[payload.getInt()];
+            payload.get(bytes);
+            cmd.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return cmd;
+    }
+
+    private void openSegment(long n) throws IOException {
+        segment = FileChannel.open(segmentPath(n), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentN = n;
+        segmentSize = segment.size();
+    }
+
+    /**
+     * Adds a command to the journal. The command becomes durable with the next group fsync.
+     * @param cmd command name and its arguments
+     * @throws IOException if the journal has failed before
+     */
+    public void append(List<String> cmd) throws IOException {
+        byte[][] tokens = new byte[cmd.size()][];
+        int length = Integer.BYTES;
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = cmd.get(i).getBytes(StandardCharsets.UTF_8);
+            length += Integer.BYTES + tokens[i].length;
+        }
+
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (closed || segment == null) {
+                throw new IOException("journal is not open");
+            }
+
+            ensure(2 * Integer.BYTES + length);
+            pending.putInt(length);
+            int crcAt = pending.position();
+            pending.putInt(0);
+            int payloadAt = pending.position();
+            pending.putInt(tokens.length);
+            for (byte[] token : tokens) {
+                pending.putInt(token.length);
+                pending.put(token);
+            }
+
+            crc.reset();
+            crc.update(pending.array(), payloadAt, length);
+            pending.putInt(crcAt, (int) crc.getValue());
+
+            if (pending.position() >= GROUP_BYTES) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+    }
+
+    /**
+     * Background loop: writes and fsyncs the pending records as one group.
+     */
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (lock) {
+                    if (!closed && pending.position() < GROUP_BYTES) {
+                        lock.wait(syncMillis);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+
+                synchronized (writeLock) {
+                    flushPending();
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            synchronized (lock) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Writes and fsyncs the pending records, called with writeLock held and lock not held.
+     * New records go to the spare buffer meanwhile.
+     */
+    private void flushPending() throws IOException {
+        ByteBuffer group;
+        FileChannel target;
+        synchronized (lock) {
+            if (pending.position() == 0) {
+                return;
+            }
+            group = pending;
+            pending = spare;
+            spare = null;
+            target = segment;
+        }
+
+        group.flip();
+        long written = 0;
+        while (group.hasRemaining()) {
+            written += target.write(group);
+        }
+        target.force(false);
+        group.clear();
+
+        synchronized (lock) {
+            segmentSize += written;
+            spare = group;
+        }
+    }
+
+    /**
+     * Folds the journal into a snapshot if the current segment is over the size limit.
+     * @param gossipers network in the state after all the appended commands
+     * @throws IOException if the journal has failed
+     */
+    public void compactIfNeeded(Gossipers gossipers) throws IOException {
+        boolean needed;
+        synchronized (lock) {
+            needed = segmentSize + pending.position() >= segmentBytes;
+        }
+
+        if (needed) {
+            compact(gossipers);
+        }
+    }
+
+    /**
+     * Starts a new segment and writes the current state as its snapshot in the background.
+     * The old segments and snapshots are deleted once the new snapshot is durable.
+     * Must be called between commands, so the state matches the journal.
+     * @param gossipers network in the state after all the appended commands
+     * @throws IOException if the journal has failed
+     */
+    public void compact(Gossipers gossipers) throws IOException {
+        long n;
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            flushPending();
+            synchronized (lock) {
+                segment.close();
+                openSegment(segmentN + 1);
+                n = segmentN;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Snapshot.write(gossipers, Channels.newChannel(bytes));
+        compactor.execute(() -> writeSnapshot(n, bytes));
+    }
+
+    /**
+     * Makes the snapshot durable, then deletes everything it replaces.
+     */
+    private void writeSnapshot(long n, ByteArrayOutputStream bytes) {
+        Path temp = dir.resolve("snapshot.tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, snapshotPath(n), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            for (Path old : list("journal-", ".log").headMap(n).values()) {
+                Files.deleteIfExists(old);
+            }
+            for (Path old : list("snapshot-", ".bin").headMap(n).values()) {
+                Files.deleteIfExists(old);
+            }
+        } catch (IOException e) {
+            synchronized (lock) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes and fsyncs everything appended, waits for a running compaction and closes the journal.
+     * @throws IOException if the last records can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+
+        compactor.shutdown();
+        try {
+            flusher.join();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (writeLock) {
+            boolean open;
+            synchronized (lock) {
+                open = segment != null;
+            }
+            if (open) {
+                flushPending();
+                synchronized (lock) {
+                    segment.close();
+                }
+            }
+        }
+
+        synchronized (lock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ru.hse.javaprogramming;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * KeywordMatcher finds any of its keywords in a text in one pass, ignoring case (Aho-Corasick automaton).
+ * Matching allocates nothing. Matchers are immutable, so censors with the same keywords share one matcher.
+ * The shared matchers are held weakly: once no censor uses a matcher, it's collected with its automaton.
+ */
+public final class KeywordMatcher {
+    /**
+     * Compiled matchers by their sorted lower-cased keywords.
+     */
+    private static final Map<List<String>, MatcherReference> cache = new ConcurrentHashMap<>();
+
+    /**
+     * References of the collected matchers, their entries are removed from the cache on the next compile.
+     */
+    private static final ReferenceQueue<KeywordMatcher> collected = new ReferenceQueue<>();
+
+    /**
+     * Matcher without keywords, it never matches.
+     */
+    public static final KeywordMatcher EMPTY = compile(List.of());
+
+    private final List<String> keywords;
+
+    /**
+     * Search results of this matcher, shared by the gossips remembering them.
+     */
+    private final Result found = new Result(this, true);
+    private final Result notFound = new Result(this, false);
+
+    /**
+     * Transitions of state s are edgeChars/edgeTargets[edgeStart[s]; edgeStart[s + 1]), sorted by char.
+     */
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+
+    /**
+     * State to go to when there is no transition by the next char.
+     */
+    private final int[] fail;
+
+    /**
+     * true if some keyword ends in the state or in one of its fail states.
+     */
+    private final boolean[] terminal;
+
+    /**
+     * Returns the matcher for the keywords, compiling it only if there is no matcher for the same keywords yet.
+     * @param keywords keywords in any case, empty ones are ignored
+     * @return shared matcher
+     */
+    public static KeywordMatcher compile(Collection<String> keywords) {
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String keyword : keywords) {
+            if (!keyword.isEmpty()) {
+                normalized.add(lowerCase(keyword));
+            }
+        }
+
+        for (MatcherReference reference; (reference = (MatcherReference) collected.poll()) != null; ) {
+            cache.remove(reference.keywords, reference);
+        }
+
+        KeywordMatcher[] matcher = new KeywordMatcher[1];
+        cache.compute(List.copyOf(normalized), (key, reference) -> {
+            matcher[0] = reference == null ? null : reference.get();
+            if (matcher[0] == null) {
+                matcher[0] = new KeywordMatcher(key);
+                reference = new MatcherReference(matcher[0]);
+            }
+            return reference;
+        });
+
+        return matcher[0];
+    }
+
+    /**
+     * Weak reference to a cached matcher, remembering its key.
+     */
+    private static final class MatcherReference extends WeakReference<KeywordMatcher> {
+        private final List<String> keywords;
+
+        MatcherReference(KeywordMatcher matcher) {
+            super(matcher, collected);
+            this.keywords = matcher.keywords;
+        }
+    }
+
+    /**
+     * Result of a search, remembered by a gossip.
+     * @param matcher matcher that searched
+     * @param found true if a keyword is found
+     */
+    record Result(KeywordMatcher matcher, boolean found) {
+    }
+
+    private static String lowerCase(String keyword) {
+        char[] chars = keyword.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+
+        return new String(chars);
+    }
+
+    private KeywordMatcher(List<String> keywords) {
+        this.keywords = keywords;
+
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(false);
+
+        for (String keyword : keywords) {
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                Integer next = trie.get(state).get(keyword.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(keyword.charAt(i), next);
+                    trie.add(new TreeMap<>());
+                    ends.add(false);
+                }
+                state = next;
+            }
+            ends.set(state, true);
+        }
+
+        int states = trie.size();
+        edgeStart = new int[states + 1];
+        for (int s = 0; s < states; s++) {
+            edgeStart[s + 1] = edgeStart[s] + trie.get(s).size();
+        }
+
+        edgeChars = new char[edgeStart[states]];
+        edgeTargets = new int[edgeStart[states]];
+        terminal = new boolean[states];
+        for (int s = 0; s < states; s++) {
+            int e = edgeStart[s];
+            for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                edgeChars[e] = edge.getKey();
+                edgeTargets[e++] = edge.getValue();
+            }
+            terminal[s] = ends.get(s);
+        }
+
+        fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            queue.add(edgeTargets[e]);
+        }
+
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+                int child = edgeTargets[e];
+                int f = fail[s];
+                int next = transition(f, edgeChars[e]);
+                while (next < 0 && f != 0) {
+                    f = fail[f];
+                    next = transition(f, edgeChars[e]);
+                }
+
+                fail[child] = next < 0 ? 0 : next;
+                terminal[child] |= terminal[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Transition from the state by the char
+     * @return next state, or -1 if there is no transition
+     */
+    private int transition(int state, char c) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (edgeChars[mid] < c) {
+                low = mid + 1;
+            } else if (edgeChars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Result of a search by this matcher
+     * @param found true if a keyword is found
+     * @return shared result
+     */
+    Result result(boolean found) {
+        return found ? this.found : notFound;
+    }
+
+    /**
+     * Check if the matcher has no keywords, so it never matches
+     * @return true for a matcher without keywords
+     */
+    public boolean isEmpty() {
+        return keywords.isEmpty();
+    }
+
+    /**
+     * Check if the text contains any of the keywords, ignoring case
+     * @param text text to search in
+     * @return true if a keyword is found
+     */
+    public boolean matches(CharSequence text) {
+        if (keywords.isEmpty()) {
+            return false;
+        }
+
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next = transition(state, c);
+
+            while (next < 0 && state != 0) {
+                state = fail[state];
+                next = transition(state, c);
+            }
+
+            state = next < 0 ? 0 : next;
+            if (terminal[state]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Keywords getter
+     * @return sorted lower-cased keywords
+     */
+    public List<String> keywords() {
+        return keywords;
+    }
+}
@@ -0,0 +1,77 @@
+package ru.hse.javaprogramming;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Link is a gossiper-listener listening to a gossiper-spreader, given by names, see {@link Gossipers#linkAll(List)}.
+ * @param talker name of the gossiper-spreader
+ * @param listener name of the gossiper-listener
+ */
+public record Link(String talker, String listener) {
+    /**
+     * Reads links from pairs of names one after another
+     * @param names talker and listener of every link
+     * @return links in the same order
+     * @throws IllegalArgumentException if there is an odd amount of names
+     */
+    public static List<Link> of(List<String> names) {
+        if (names.size() % 2 != 0) {
+            throw new IllegalArgumentException("names must come in pairs");
+        }
+
+        List<Link> links = new ArrayList<>(names.size() / 2);
+        for (int i = 0; i < names.size(); i += 2) {
+            links.add(new Link(names.get(i), names.get(i + 1)));
+        }
+        return links;
+    }
+
+    /**
+     * Reads an edge list: one link per line, "talker,listener" (CSV) or "talker listener"
+     * with the names quoted as in commands. Empty lines and lines starting with '#' are skipped.
+     * @param file file to read
+     * @return links in the order of the file
+     * @throws IOException if the file can't be read or a line isn't a link
+     */
+    public static List<Link> read(Path file) throws IOException {
+        List<Link> links = new ArrayList<>();
+        CommandTokenizer tokenizer = new CommandTokenizer();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                ++number;
+                String trimmed = line.strip();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+
+                int comma = trimmed.indexOf(',');
+                if (comma >= 0) {
+                    String talker = trimmed.substring(0, comma).strip();
+                    String listener = trimmed.substring(comma + 1).strip();
+                    if (talker.isEmpty() || listener.isEmpty() || listener.indexOf(',') >= 0) {
+                        throw new IOException("line " + number + " is not a link");
+                    }
+                    links.add(new Link(talker, listener));
+                    continue;
+                }
+
+                List<String> names = tokenizer.tokenize(trimmed);
+                if (names.size() != 2) {
+                    throw new IOException("line " + number + " is not a link");
+                }
+                links.add(new Link(names.get(0), names.get(1)));
+            }
+        }
+
+        return links;
+    }
+}
@@ -0,0 +1,226 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LruDedupStore remembers hashes of at most capacity recent messages,
+ * optionally only for a time window. Forgotten messages are spread again.
+ * <p>
+ * Entries live in primitive arrays: the hash, the time it was last seen and the links of a list from the least
+ * recently seen, about 24 bytes per message plus an open-addressing index of ints. They grow up to capacity.
+ */
+public class LruDedupStore implements DedupStore {
+    /**
+     * The greatest capacity, so the index fits an int array.
+     */
+    static final int MAX_CAPACITY = 1 << 28;
+
+    private final int capacity;
+
+    /**
+     * How long a message is remembered in nanoseconds, 0 = until it's evicted.
+     */
+    private final long windowNanos;
+
+    /**
+     * Entries: message hash, the time it was last seen (only with a window) and the previous and next
+     * entries of the list, -1 at its ends.
+     */
+    private long[] hashes;
+    private long[] times;
+    private int[] prev;
+    private int[] next;
+
+    /**
+     * Least and most recently seen entries, -1 if the store is empty.
+     */
+    private int eldest = -1;
+    private int newest = -1;
+    private int size = 0;
+
+    /**
+     * Open-addressing table of entry + 1, 0 = empty slot. At most half full.
+     */
+    private int[] index;
+
+    /**
+     * Constructor from capacity and time window
+     * @param capacity the maximum amount of remembered messages
+     * @param windowMillis how long a message is remembered in milliseconds, 0 = until it's evicted
+     */
+    public LruDedupStore(int capacity, long windowMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity is too large");
+        }
+
+        this.capacity = capacity;
+        this.windowNanos = windowMillis * 1_000_000L;
+        allocate(Math.min(capacity, 16));
+    }
+
+    @Override
+    public synchronized boolean add(Gossip gossip) {
+        return put(gossip.hash(), System.nanoTime());
+    }
+
+    /**
+     * Checks the message without making it recently seen.
+     */
+    @Override
+    public synchronized boolean contains(Gossip gossip) {
+        int entry = find(gossip.hash());
+        return entry >= 0 && (windowNanos == 0 || System.nanoTime() - times[entry] <= windowNanos);
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Writes the hashes from the least recently seen; the times are not saved.
+     */
+    @Override
+    public synchronized void write(SnapshotOutput out) throws IOException {
+        out.writeInt(size);
+        for (int entry = eldest; entry >= 0; entry = next[entry]) {
+            out.writeLong(hashes[entry]);
+        }
+    }
+
+    /**
+     * Reads the hashes as if they were all seen right now.
+     */
+    @Override
+    public synchronized void read(SnapshotInput in) throws IOException {
+        int count = in.readLength(Long.BYTES);
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            put(in.readLong(), now);
+        }
+    }
+
+    /**
+     * Makes the hash the most recently seen, evicting the least recently seen one if the store is full.
+     * @return true if the hash wasn't remembered or its window has passed
+     */
+    private boolean put(long hash, long now) {
+        int entry = find(hash);
+        if (entry >= 0) {
+            boolean expired = windowNanos > 0 && now - times[entry] > windowNanos;
+            if (times != null) {
+                times[entry] = now;
+            }
+            unlink(entry);
+            append(entry);
+            return expired;
+        }
+
+        if (size == capacity) {
+            entry = eldest;
+            unlink(entry);
+            removeFromIndex(entry);
+        } else {
+            if (size == hashes.length) {
+                allocate((int) Math.min(capacity, 2L * hashes.length));
+            }
+            entry = size++;
+        }
+
+        hashes[entry] = hash;
+        if (times != null) {
+            times[entry] = now;
+        }
+        append(entry);
+        insertIntoIndex(entry);
+        return true;
+    }
+
+    /**
+     * @return entry of the hash, or -1
+     */
+    private int find(long hash) {
+        int mask = index.length - 1;
+        for (int slot = (int) MessageHash.mix(hash) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[index[slot] - 1] == hash) {
+                return index[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insertIntoIndex(int entry) {
+        int mask = index.length - 1;
+        int slot = (int) MessageHash.mix(hashes[entry]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = entry + 1;
+    }
+
+    /**
+     * Removes the entry from the index, shifting back the entries probed past it.
+     */
+    private void removeFromIndex(int entry) {
+        int mask = index.length - 1;
+        int hole = (int) MessageHash.mix(hashes[entry]) & mask;
+        while (index[hole] != entry + 1) {
+            hole = (hole + 1) & mask;
+        }
+
+        for (int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            int home = (int) MessageHash.mix(hashes[index[slot] - 1]) & mask;
+            // the entry may move to the hole only if its probe starts at or before the hole
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void unlink(int entry) {
+        if (prev[entry] >= 0) {
+            next[prev[entry]] = next[entry];
+        } else {
+            eldest = next[entry];
+        }
+        if (next[entry] >= 0) {
+            prev[next[entry]] = prev[entry];
+        } else {
+            newest = prev[entry];
+        }
+    }
+
+    private void append(int entry) {
+        prev[entry] = newest;
+        next[entry] = -1;
+        if (newest >= 0) {
+            next[newest] = entry;
+        } else {
+            eldest = entry;
+        }
+        newest = entry;
+    }
+
+    /**
+     * Resizes the entries to the given length and rebuilds the index for them.
+     */
+    private void allocate(int length) {
+        hashes = hashes == null ? new long[length] : Arrays.copyOf(hashes, length);
+        prev = prev == null ? new int[length] : Arrays.copyOf(prev, length);
+        next = next == null ? new int[length] : Arrays.copyOf(next, length);
+        if (windowNanos > 0) {
+            times = times == null ? new long[length] : Arrays.copyOf(times, length);
+        }
+
+        index = new int[Integer.highestOneBit(Math.max(1, length - 1)) << 2];
+        for (int entry = 0; entry < size; entry++) {
+            insertIntoIndex(entry);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ru.hse.javaprogramming;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message is a text sent to a gossiper by name, see {@link Gossipers#messageAll(List)}.
+ * @param gossiper name of the gossiper
+ * @param text text of the message
+ */
+public record Message(String gossiper, String text) {
+    /**
+     * Reads messages from pairs of a name and a text one after another
+     * @param tokens name and text of every message
+     * @return messages in the same order
+     * @throws IllegalArgumentException if there is an odd amount of tokens
+     */
+    public static List<Message> of(List<String> tokens) {
+        if (tokens.size() % 2 != 0) {
+            throw new IllegalArgumentException("names and texts must come in pairs");
+        }
+
+        List<Message> messages = new ArrayList<>(tokens.size() / 2);
+        for (int i = 0; i < tokens.size(); i += 2) {
+            messages.add(new Message(tokens.get(i), tokens.get(i + 1)));
+        }
+        return messages;
+    }
+}
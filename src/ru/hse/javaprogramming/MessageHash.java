@@ -0,0 +1,39 @@
+package ru.hse.javaprogramming;
+
+/**
+ * 64-bit hashes of gossip messages, used instead of the messages themselves where a hash is enough.
+ */
+public final class MessageHash {
+    private MessageHash() {
+    }
+
+    /**
+     * Hashes the text with the given seed, different seeds give independent hashes.
+     * @param text text to hash
+     * @param seed hash seed
+     * @return 64-bit hash
+     */
+    public static long hash(CharSequence text, long seed) {
+        long h = seed ^ 0xcbf29ce484222325L;
+
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+
+        return mix(h ^ text.length());
+    }
+
+    /**
+     * Finalization step of MurmurHash3: spreads every bit of the input over the whole result.
+     * @param h value to mix
+     * @return mixed value
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
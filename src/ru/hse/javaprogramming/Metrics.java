@@ -0,0 +1,251 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a network: counters of every gossiper ({@link GossiperMetrics}) and histograms of
+ * fan-out per send, cascade size and depth per injected gossip and wall time per command.
+ * <p>
+ * Recording is off by default, then the hot paths only read one volatile flag.
+ * Totals are summed over the gossipers in the network, counters of removed gossipers are gone.
+ * The getters run on JMX threads while the network changes, so they walk a concurrent copy of the gossipers
+ * kept by the network and never the network itself.
+ */
+public class Metrics implements MetricsMXBean {
+    private volatile boolean enabled;
+
+    /**
+     * Listeners per sent gossip.
+     */
+    final Histogram fanOut = new Histogram();
+
+    /**
+     * Deliveries per injected gossip.
+     */
+    final Histogram cascadeSize = new Histogram();
+
+    /**
+     * Longest chain of deliveries per injected gossip, 0 if only the target received it.
+     */
+    final Histogram cascadeDepth = new Histogram();
+
+    /**
+     * Wall time of the commands in nanoseconds, by command name.
+     */
+    private final Map<String, Histogram> commandNanos = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gossipers of the network by name, the same as {@link Gossipers#gossipersSet}.
+     */
+    private final Map<String, Gossiper> gossipers = new ConcurrentSkipListMap<>();
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts counting a gossiper added to the network
+     * @param gossiper new gossiper
+     */
+    void added(Gossiper gossiper) {
+        gossipers.put(gossiper.getName(), gossiper);
+    }
+
+    /**
+     * Stops counting a gossiper removed from the network
+     * @param gossiper removed gossiper
+     */
+    void removed(Gossiper gossiper) {
+        gossipers.remove(gossiper.getName(), gossiper);
+    }
+
+    /**
+     * Stops counting all the gossipers
+     */
+    void cleared() {
+        gossipers.clear();
+    }
+
+    /**
+     * Counts a finished cascade
+     * @param size deliveries in the cascade
+     * @param depth longest chain of deliveries
+     */
+    void cascade(long size, int depth) {
+        cascadeSize.record(size);
+        cascadeDepth.record(depth);
+    }
+
+    /**
+     * Counts the wall time of a command
+     * @param name command name
+     * @param nanos wall time in nanoseconds
+     */
+    public void command(String name, long nanos) {
+        commandNanos.computeIfAbsent(name, k -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public long getReceived() {
+        long sum = 0;
+        for (Gossiper gossiper : gossipers.values()) {
+            sum += gossiper.stats.received();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getForwarded() {
+        long sum = 0;
+        for (Gossiper gossiper : gossipers.values()) {
+            sum += gossiper.stats.forwarded();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getCensored() {
+        long sum = 0;
+        for (Gossiper gossiper : gossipers.values()) {
+            sum += gossiper.stats.censored();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getDuplicates() {
+        long sum = 0;
+        for (Gossiper gossiper : gossipers.values()) {
+            sum += gossiper.stats.duplicates();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getTired() {
+        long sum = 0;
+        for (Gossiper gossiper : gossipers.values()) {
+            sum += gossiper.stats.tired();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getCascades() {
+        return cascadeSize.count();
+    }
+
+    @Override
+    public double getMeanCascadeSize() {
+        return cascadeSize.mean();
+    }
+
+    @Override
+    public long getMaxCascadeDepth() {
+        return cascadeDepth.max();
+    }
+
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writeText(text);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Forgets all the recorded values
+     */
+    @Override
+    public void reset() {
+        for (Gossiper gossiper : gossipers.values()) {
+            gossiper.stats.reset();
+        }
+        fanOut.reset();
+        cascadeSize.reset();
+        cascadeDepth.reset();
+        commandNanos.clear();
+    }
+
+    /**
+     * Prints the totals and the histograms
+     * @param out sink to print to
+     */
+    public void print(OutputSink out) {
+        out.println("Metrics are " + (enabled ? "on" : "off") + ".");
+        out.println("gossips: received=" + getReceived() + " forwarded=" + getForwarded() + " censored="
+                + getCensored() + " duplicates=" + getDuplicates() + " tired=" + getTired());
+        out.println("fan-out: " + fanOut);
+        out.println("cascade size: " + cascadeSize);
+        out.println("cascade depth: " + cascadeDepth);
+        for (Map.Entry<String, Histogram> command : commandNanos.entrySet()) {
+            out.println("command " + command.getKey() + " (ns): " + command.getValue());
+        }
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text format: one "name{labels} value" per line.
+     * @param out where to write
+     * @throws IOException if out fails
+     */
+    public void writeText(Appendable out) throws IOException {
+        for (Gossiper gossiper : gossipers.values()) {
+            String label = "{gossiper=\"" + escape(gossiper.getName()) + "\"}";
+            GossiperMetrics stats = gossiper.stats;
+            out.append("gossip_received_total").append(label).append(' ').append(Long.toString(stats.received())).append('\n');
+            out.append("gossip_forwarded_total").append(label).append(' ').append(Long.toString(stats.forwarded())).append('\n');
+            out.append("gossip_censored_total").append(label).append(' ').append(Long.toString(stats.censored())).append('\n');
+            out.append("gossip_duplicates_total").append(label).append(' ').append(Long.toString(stats.duplicates())).append('\n');
+            out.append("gossip_tired_total").append(label).append(' ').append(Long.toString(stats.tired())).append('\n');
+        }
+
+        writeHistogram(out, "gossip_fan_out", "", fanOut);
+        writeHistogram(out, "gossip_cascade_size", "", cascadeSize);
+        writeHistogram(out, "gossip_cascade_depth", "", cascadeDepth);
+        for (Map.Entry<String, Histogram> command : commandNanos.entrySet()) {
+            writeHistogram(out, "gossip_command_nanos", "command=\"" + escape(command.getKey()) + "\"",
+                    command.getValue());
+        }
+    }
+
+    private static void writeHistogram(Appendable out, String name, String labels, Histogram histogram)
+            throws IOException {
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        String comma = labels.isEmpty() ? "" : labels + ",";
+
+        for (double p : new double[] {0.5, 0.9, 0.99}) {
+            out.append(name).append("{").append(comma).append("quantile=\"").append(Double.toString(p)).append("\"} ")
+                    .append(Long.toString(histogram.percentile(p))).append('\n');
+        }
+        out.append(name).append("_count").append(braces).append(' ').append(Long.toString(histogram.count())).append('\n');
+        out.append(name).append("_sum").append(braces).append(' ').append(Long.toString(histogram.sum())).append('\n');
+        out.append(name).append("_max").append(braces).append(' ').append(Long.toString(histogram.max())).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Registers the metrics as an MXBean in the platform MBean server.
+     * @param name JMX object name, e.g. "ru.hse.javaprogramming:type=Metrics"
+     * @throws JMException if the name is wrong or taken
+     */
+    public void register(String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+    }
+}
@@ -0,0 +1,34 @@
+package ru.hse.javaprogramming;
+
+/**
+ * JMX view of the metrics of a network, see {@link Metrics#register(String)}.
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getReceived();
+
+    long getForwarded();
+
+    long getCensored();
+
+    long getDuplicates();
+
+    long getTired();
+
+    long getCascades();
+
+    double getMeanCascadeSize();
+
+    long getMaxCascadeDepth();
+
+    /**
+     * All the metrics in the text format of {@link Metrics#writeText(Appendable)}
+     * @return text export
+     */
+    String getText();
+
+    void reset();
+}
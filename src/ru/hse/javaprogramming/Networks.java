@@ -0,0 +1,213 @@
+package ru.hse.javaprogramming;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Networks hosts independent gossip networks by name.
+ * <p>
+ * A network is not thread-safe, so each one gets its own serial executor: tasks for one network run one at a time
+ * in the order they were submitted, tasks for different networks run in parallel on a shared pool.
+ * Networks share no state and no locks, so commands for different networks never wait for each other.
+ */
+public class Networks implements Closeable {
+    /**
+     * A network with the queue of its tasks. Scheduled on the pool only while it has tasks.
+     */
+    private final class Network implements Executor, Runnable {
+        private final Gossipers gossipers;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean removed;
+
+        private Network(Gossipers gossipers) {
+            this.gossipers = gossipers;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (removed) {
+                throw new RejectedExecutionException("network is removed");
+            }
+
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                pool.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private final Map<String, Network> networks = new ConcurrentHashMap<>();
+
+    /**
+     * Pool that runs the tasks of all the networks.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Constructor with a pool of daemon threads, one per core.
+     */
+    public Networks() {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "networks");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Constructor from pool
+     * @param pool pool that runs the tasks of all the networks, shut down by {@link #close()}
+     */
+    public Networks(ExecutorService pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Creates a new empty network.
+     * @param name network name
+     * @param maxMoves the maximum amount of gossips one gossiper can receive until she gets tired
+     * @param maxGossipers the maximum amount of gossipers
+     * @param mode order in which gossips are delivered
+     * @param out sink the network prints to
+     * @return new network
+     * @throws IllegalArgumentException if the name is taken
+     */
+    public Gossipers create(String name, int maxMoves, int maxGossipers, PropagationMode mode, OutputSink out) {
+        Network network = new Network(new Gossipers(maxMoves, maxGossipers, mode, out));
+        if (networks.putIfAbsent(name, network) != null) {
+            throw new IllegalArgumentException("network \"" + name + "\" already exists");
+        }
+        return network.gossipers;
+    }
+
+    /**
+     * Hosts a network created elsewhere, e.g. one recovered from a journal.
+     * @param name network name
+     * @param gossipers network, it must not be used directly anymore
+     * @throws IllegalArgumentException if the name is taken
+     */
+    public void add(String name, Gossipers gossipers) {
+        if (networks.putIfAbsent(name, new Network(gossipers)) != null) {
+            throw new IllegalArgumentException("network \"" + name + "\" already exists");
+        }
+    }
+
+    /**
+     * Network by name. It must only be used from its tasks, see {@link #submit(String, Function)}.
+     * @param name network name
+     * @return the network, or null if there is no such network
+     */
+    public Gossipers get(String name) {
+        Network network = networks.get(name);
+        return network == null ? null : network.gossipers;
+    }
+
+    /**
+     * Removes a network, the tasks already submitted still run, then its event subscribers are completed
+     * and the network is closed, see {@link Gossipers#close()}.
+     * @param name network name
+     * @return false if there is no such network
+     */
+    public boolean remove(String name) {
+        Network network = networks.remove(name);
+        if (network == null) {
+            return false;
+        }
+
+        network.execute(() -> {
+            network.gossipers.events.close();
+            network.gossipers.close();
+        });
+        network.removed = true;
+        return true;
+    }
+
+    /**
+     * Names of the networks
+     * @return network names in alphabetical order
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(new TreeSet<>(networks.keySet()));
+    }
+
+    /**
+     * Runs a task on the network after all the tasks submitted to it before.
+     * @param name network name
+     * @param task task that uses the network
+     * @param <T> result type
+     * @return future of the task result, fails if there is no such network
+     */
+    public <T> CompletableFuture<T> submit(String name, Function<Gossipers, T> task) {
+        Network network = networks.get(name);
+        if (network == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("network \"" + name + "\" not found"));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> task.apply(network.gossipers), network);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Runs a command on the network, see {@link GossipsMain#execute(List, Gossipers)}.
+     * The output of the network is flushed after the command.
+     * @param name network name
+     * @param cmd command name and its arguments
+     * @return future that is false if the command is quit
+     */
+    public CompletableFuture<Boolean> execute(String name, List<String> cmd) {
+        List<String> command = List.copyOf(cmd);
+        return submit(name, gossipers -> {
+            try {
+                return GossipsMain.execute(command, gossipers);
+            } finally {
+                gossipers.out.flush();
+            }
+        });
+    }
+
+    /**
+     * Removes all the networks and stops the pool, tasks already submitted still run.
+     */
+    @Override
+    public void close() {
+        for (String name : networks.keySet()) {
+            remove(name);
+        }
+        pool.shutdown();
+    }
+}
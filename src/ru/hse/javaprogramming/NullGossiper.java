@@ -13,7 +13,17 @@ public class NullGossiper extends Gossiper {
      * Only prints messages that have been received without spreading them.
      */
     @Override
-    public void doGossipAction(String gossipMessage) {
-        printMessage(gossipMessage);
+    public void doGossipAction(Gossip gossip) {
+        printMessage(gossip);
+    }
+
+    @Override
+    protected int minCopies(Gossip gossip) {
+        return 0;
+    }
+
+    @Override
+    protected int maxCopies(Gossip gossip) {
+        return 0;
     }
 }
@@ -0,0 +1,34 @@
+package ru.hse.javaprogramming;
+
+/**
+ * NullSink drops all the output, used to measure the engine without the console.
+ */
+public class NullSink implements OutputSink {
+    /**
+     * The only instance, NullSink has no state.
+     */
+    public static final NullSink INSTANCE = new NullSink();
+
+    private NullSink() {
+    }
+
+    @Override
+    public void print(String text) {
+    }
+
+    @Override
+    public void println(String line) {
+    }
+
+    @Override
+    public void message(String name, int messageNumber, String gossipMessage) {
+    }
+
+    @Override
+    public void tired(String name) {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,42 @@
+package ru.hse.javaprogramming;
+
+/**
+ * OutputSink receives everything the app prints: command results and gossip events.
+ * Implementations must be safe to use from several threads, the concurrent engine prints from many of them.
+ */
+public interface OutputSink {
+    /**
+     * Prints text without a line break.
+     * @param text text to print
+     */
+    void print(String text);
+
+    /**
+     * Prints a line.
+     * @param line text of the line
+     */
+    void println(String line);
+
+    /**
+     * Prints that a gossiper has received a gossip.
+     * @param name gossiper's name
+     * @param messageNumber number of the gossip received by the gossiper
+     * @param gossipMessage text of the gossip
+     */
+    default void message(String name, int messageNumber, String gossipMessage) {
+        println(name + ", message number = " + messageNumber + ", message: \"" + gossipMessage + "\"");
+    }
+
+    /**
+     * Prints that a gossiper is tired.
+     * @param name gossiper's name
+     */
+    default void tired(String name) {
+        println(name + " is tired");
+    }
+
+    /**
+     * Writes out everything printed so far.
+     */
+    void flush();
+}
@@ -0,0 +1,54 @@
+package ru.hse.javaprogramming;
+
+/**
+ * Order in which gossips are delivered through the network.
+ */
+public enum PropagationMode {
+    /**
+     * Original engine: every gossiper calls its listeners directly, the cascade lives on the call stack.
+     */
+    RECURSIVE,
+
+    /**
+     * Work-queue engine that delivers gossips in the same order as the recursive one.
+     */
+    DEPTH_FIRST,
+
+    /**
+     * Work-queue engine that delivers gossips level by level.
+     */
+    BREADTH_FIRST,
+
+    /**
+     * Every gossiper has its own mailbox, mailboxes are processed in parallel.
+     */
+    CONCURRENT;
+
+    /**
+     * Finds the mode by its short CLI name.
+     * @param name one of "recursive", "dfs", "bfs", "parallel"
+     * @return mode if found, else null
+     */
+    public static PropagationMode byName(String name) {
+        return switch (name) {
+            case "recursive" -> RECURSIVE;
+            case "dfs" -> DEPTH_FIRST;
+            case "bfs" -> BREADTH_FIRST;
+            case "parallel" -> CONCURRENT;
+            default -> null;
+        };
+    }
+
+    /**
+     * Creates a new propagator working in this mode.
+     * @return new propagator
+     */
+    public Propagator newPropagator() {
+        return switch (this) {
+            case RECURSIVE -> new RecursivePropagator();
+            case DEPTH_FIRST -> new QueuePropagator(true);
+            case BREADTH_FIRST -> new QueuePropagator(false);
+            case CONCURRENT -> new ConcurrentPropagator();
+        };
+    }
+}
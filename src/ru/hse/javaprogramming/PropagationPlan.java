@@ -0,0 +1,157 @@
+package ru.hse.javaprogramming;
+
+import java.util.Arrays;
+
+/**
+ * PropagationPlan is the part of the graph reachable from one source gossiper, compiled into flat arrays:
+ * the reachable gossipers in topological order with the listeners of each one as local indexes,
+ * still sorted by name. Propagators walk a plan without looking anything up in the graph.
+ * <p>
+ * Plans are cached by the {@link Graph} and dropped when a link of a gossiper in the plan changes.
+ * The gossipers themselves keep deciding what to do with a gossip, as that depends on their state
+ * (received messages, seen messages, generator seeds).
+ */
+public final class PropagationPlan {
+    /**
+     * Reachable gossipers in topological order.
+     */
+    private final Gossiper[] nodes;
+
+    /**
+     * Listeners of nodes[i] are targets[start[i]] .. targets[start[i + 1] - 1].
+     * The last target is the source, so a cascade starts with a range of targets like every other delivery.
+     */
+    private final int[] start;
+    private final int[] targets;
+
+    /**
+     * Graph ids of the nodes, sorted, to find out if a gossiper is in the plan.
+     */
+    private final int[] ids;
+
+    /**
+     * Compiles the plan of a source gossiper.
+     * @param graph graph of the source
+     * @param gossiper source gossiper
+     */
+    PropagationPlan(Graph graph, Gossiper gossiper) {
+        int[] local = graph.scratch();
+        int[] found = new int[16];
+        int count = 0;
+
+        // breadth-first search, local holds 1 + the position in found of every reached gossiper
+        found[count++] = gossiper.id;
+        local[gossiper.id] = count;
+        for (int next = 0; next < count; next++) {
+            Gossiper talker = graph.node(found[next]);
+            int[] listeners = graph.listenerIds(talker);
+            for (int i = 0; i < graph.listenerCount(talker); i++) {
+                if (local[listeners[i]] == 0) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = listeners[i];
+                    local[listeners[i]] = count;
+                }
+            }
+        }
+
+        nodes = new Gossiper[count];
+        for (int i = 0; i < count; i++) {
+            nodes[i] = graph.node(found[i]);
+        }
+        Arrays.sort(nodes, (g1, g2) -> Integer.compare(g1.order, g2.order));
+        for (int i = 0; i < count; i++) {
+            local[nodes[i].id] = i;
+        }
+
+        start = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            start[i + 1] = start[i] + graph.listenerCount(nodes[i]);
+        }
+        targets = new int[start[count] + 1];
+        for (int i = 0; i < count; i++) {
+            int[] listeners = graph.listenerIds(nodes[i]);
+            for (int j = 0; j < graph.listenerCount(nodes[i]); j++) {
+                targets[start[i] + j] = local[listeners[j]];
+            }
+        }
+
+        targets[start[count]] = local[gossiper.id];
+        ids = Arrays.copyOf(found, count);
+        Arrays.sort(ids);
+
+        // only the reached gossipers were set, zeroing them leaves the scratch clean for the next compile
+        for (int id : ids) {
+            local[id] = 0;
+        }
+    }
+
+    /**
+     * Position of the source gossiper in {@link #targets()}
+     * @return position of the source, the only one after the listeners of the last gossiper
+     */
+    public int sourceStart() {
+        return start[nodes.length];
+    }
+
+    /**
+     * Gossiper by local index
+     * @param node local index
+     * @return the gossiper
+     */
+    public Gossiper node(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Amount of gossipers reachable from the source, the source included
+     * @return size of the plan
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * First position of the listeners of a gossiper in {@link #targets()}
+     * @param node local index
+     * @return position of the first listener
+     */
+    public int listenersStart(int node) {
+        return start[node];
+    }
+
+    /**
+     * Position after the last listener of a gossiper in {@link #targets()}
+     * @param node local index
+     * @return position after the last listener
+     */
+    public int listenersEnd(int node) {
+        return start[node + 1];
+    }
+
+    /**
+     * Local indexes of the listeners of all the gossipers, owned by the plan and must not be changed.
+     * @return listener indexes
+     */
+    int[] targets() {
+        return targets;
+    }
+
+    /**
+     * Check if a gossiper is in the plan
+     * @param id graph id of the gossiper
+     * @return true if the gossiper is reachable from the source
+     */
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Size of the plan in memory: its gossipers and their listeners
+     * @return amount of nodes plus amount of targets
+     */
+    long weight() {
+        return (long) nodes.length + targets.length;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.hse.javaprogramming;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Propagator delivers gossips from a gossiper to its listeners.
+ * Gossipers never call their listeners directly, they hand messages over to the propagator of their network.
+ */
+public interface Propagator {
+    /**
+     * Delivers a gossip to the target gossiper and spreads it until the cascade dies out.
+     * @param target gossiper that receives the gossip first
+     * @param gossip gossip to deliver
+     */
+    void propagate(Gossiper target, Gossip gossip);
+
+    /**
+     * Delivers a batch of gossips, gossips[i] to targets[i], and spreads them until the cascades die out.
+     * By default the gossips are propagated one after another, as by {@link #propagate(Gossiper, Gossip)};
+     * propagators may spread a batch together instead and document their order.
+     * @param targets gossipers that receive the gossips first
+     * @param gossips gossips to deliver, as many as targets
+     */
+    default void propagateAll(List<Gossiper> targets, List<Gossip> gossips) {
+        for (int i = 0; i < targets.size(); i++) {
+            propagate(targets.get(i), gossips.get(i));
+        }
+    }
+
+    /**
+     * Starts delivering a gossip to the target gossiper without waiting for the cascade.
+     * Sequential propagators finish the cascade before returning.
+     * @param target gossiper that receives the gossip first
+     * @param gossip gossip to deliver
+     * @return future that completes when the cascade has died out
+     */
+    default CompletableFuture<Void> submit(Gossiper target, Gossip gossip) {
+        propagate(target, gossip);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Sends a gossip from the gossiper to all of its listeners.
+     * @param from gossiper-spreader
+     * @param gossip gossip to deliver
+     */
+    void send(Gossiper from, Gossip gossip);
+
+    /**
+     * Sends gossips from the gossiper to all of its listeners, as count {@link #send(Gossiper, Gossip)} calls would.
+     * Propagators that collect vectors of gossips take them in bulk.
+     * @param from gossiper-spreader
+     * @param gossips gossips to deliver, in order
+     * @param count amount of gossips, from the start of the array
+     */
+    default void sendAll(Gossiper from, Gossip[] gossips, int count) {
+        for (int i = 0; i < count; i++) {
+            send(from, gossips[i]);
+        }
+    }
+
+    /**
+     * Sends a gossip from the gossiper to all of its listeners several times as one multi-delivery:
+     * every listener gets all the copies in a row, each copy spreads as usual.
+     * Unlike several {@link #send(Gossiper, Gossip)} calls, the copies to one listener aren't interleaved
+     * with the copies to the others.
+     * @param from gossiper-spreader
+     * @param gossip gossip to deliver
+     * @param times amount of copies every listener gets
+     */
+    default void send(Gossiper from, Gossip gossip, int times) {
+        for (int i = 0; i < times; i++) {
+            send(from, gossip);
+        }
+    }
+
+    /**
+     * Schedules the tiredness check of a gossiper that has just handled a gossip.
+     * The check runs once everything the gossiper has sent is delivered.
+     * @param gossiper gossiper that has handled a gossip
+     */
+    void settle(Gossiper gossiper);
+
+    /**
+     * Check if gossipers may handle gossips in parallel
+     * @return true if gossips are delivered on several threads at once
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Forgets the state kept for a gossiper removed from the network.
+     * @param gossiper removed gossiper
+     */
+    default void forget(Gossiper gossiper) {
+    }
+
+    /**
+     * Forgets the state kept for all the gossipers, called when the network is cleared.
+     */
+    default void forgetAll() {
+    }
+
+    /**
+     * Releases the threads of the propagator, called when the network is closed.
+     * Gossips must not be propagated afterwards.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,413 @@
+package ru.hse.javaprogramming;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * QueuePropagator delivers gossips from an explicit work queue, so the stack doesn't grow with the cascade.
+ * In depth-first mode the order of delivered messages is the same as in {@link RecursivePropagator}.
+ * <p>
+ * A cascade walks the {@link PropagationPlan} of its target, cached by the graph between messages.
+ * One send is one step for a whole range of listeners in the plan, kept as plain ints in reused arrays,
+ * so a delivery allocates nothing and looks nothing up in the graph.
+ * <p>
+ * A batch of gossips is spread together, see {@link #propagateAll(List, List)}.
+ * Not thread-safe: one cascade at a time.
+ */
+public class QueuePropagator implements Propagator {
+    /**
+     * A queue of steps, four ints per step in one array. A step delivers times copies of the gossip to each of
+     * the targets of the plan from start to end - 1, one after another; depth is the amount of deliveries
+     * from the cascade target to them. A step with times = 0 is the tiredness check of the node start.
+     */
+    private static final class Steps {
+        private static final int STEP = 4;
+
+        private int[] ring = new int[64 * STEP];
+
+        /**
+         * Steps are at head .. head + size - 1 (in ints) modulo the capacity.
+         */
+        private int head;
+        private int size;
+
+        /**
+         * Fields of the step removed by {@link #pollFirst()}.
+         */
+        private int start;
+        private int end;
+        private int depth;
+        private int copies;
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        private void addFirst(int start, int end, int depth, int times) {
+            if (size == ring.length) {
+                grow();
+            }
+            head = (head - STEP) & (ring.length - 1);
+            set(head, start, end, depth, times);
+            size += STEP;
+        }
+
+        private void addLast(int start, int end, int depth, int times) {
+            if (size == ring.length) {
+                grow();
+            }
+            set((head + size) & (ring.length - 1), start, end, depth, times);
+            size += STEP;
+        }
+
+        private void set(int i, int start, int end, int depth, int times) {
+            ring[i] = start;
+            ring[i + 1] = end;
+            ring[i + 2] = depth;
+            ring[i + 3] = times;
+        }
+
+        private void pollFirst() {
+            get(head);
+            head = (head + STEP) & (ring.length - 1);
+            size -= STEP;
+        }
+
+        /**
+         * Reverses the order of the first count steps.
+         */
+        private void reverseFirst(int count) {
+            int mask = ring.length - 1;
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                int a = (head + i * STEP) & mask;
+                int b = (head + j * STEP) & mask;
+                for (int k = 0; k < STEP; k++) {
+                    int swap = ring[a + k];
+                    ring[a + k] = ring[b + k];
+                    ring[b + k] = swap;
+                }
+            }
+        }
+
+        private void get(int i) {
+            start = ring[i];
+            end = ring[i + 1];
+            depth = ring[i + 2];
+            copies = ring[i + 3];
+        }
+
+        /**
+         * Doubles the ring and unrolls it so the steps start at 0.
+         */
+        private void grow() {
+            int[] grown = new int[ring.length * 2];
+            System.arraycopy(ring, head, grown, 0, ring.length - head);
+            System.arraycopy(ring, 0, grown, ring.length - head, head);
+            ring = grown;
+            head = 0;
+        }
+    }
+
+    /**
+     * true = depth-first; false = breadth-first
+     */
+    private final boolean depthFirst;
+
+    /**
+     * Steps waiting to be done, the next one is at the head.
+     */
+    private final Steps steps = new Steps();
+
+    /**
+     * Amount of steps produced by the delivery being done, depth-first only.
+     */
+    private int produced;
+
+    /**
+     * Plan of the running cascade.
+     */
+    private PropagationPlan plan;
+
+    /**
+     * Node and depth of the delivery being done.
+     */
+    private int node;
+    private int depth;
+
+    /**
+     * Gossips sent by the gossiper handling a batch, null outside of batches.
+     */
+    private List<Gossip> outbox;
+    private Gossiper sender;
+
+    /**
+     * The gossiper handling a batch has asked for a tiredness check.
+     */
+    private boolean settling;
+
+    /**
+     * Constructor from the delivery order
+     * @param depthFirst true = depth-first; false = breadth-first
+     */
+    public QueuePropagator(boolean depthFirst) {
+        this.depthFirst = depthFirst;
+    }
+
+    @Override
+    public void propagate(Gossiper target, Gossip gossip) {
+        plan = target.graph().plan(target);
+        int[] targets = plan.targets();
+        steps.clear();
+        steps.addLast(plan.sourceStart(), plan.sourceStart() + 1, 0, 1);
+        long size = 0;
+        int maxDepth = 0;
+
+        try {
+            while (!steps.isEmpty()) {
+                steps.pollFirst();
+                depth = steps.depth;
+
+                if (steps.copies == 0) {
+                    node = steps.start;
+                    plan.node(node).checkTired();
+                } else {
+                    int start = steps.start;
+                    int times = steps.copies;
+                    // the rest of the range, and before it the rest of the copies, go right after this delivery
+                    if (start + 1 < steps.end) {
+                        steps.addFirst(start + 1, steps.end, depth, times);
+                    }
+                    if (times > 1) {
+                        steps.addFirst(start, start + 1, depth, times - 1);
+                    }
+
+                    ++size;
+                    maxDepth = Math.max(maxDepth, depth);
+                    node = targets[start];
+                    plan.node(node).getGossipMessage(gossip);
+                }
+
+                schedule();
+            }
+        } finally {
+            plan = null;
+        }
+
+        Metrics metrics = target.metrics();
+        if (metrics.isEnabled()) {
+            metrics.cascade(size, maxDepth);
+        }
+    }
+
+    /**
+     * Puts a step produced by the delivery being done to the queue.
+     * Depth-first puts the produced steps in front (first produced goes first), breadth-first puts them at the end.
+     */
+    private void produce(int start, int end, int depth, int times) {
+        if (depthFirst) {
+            steps.addFirst(start, end, depth, times);
+            ++produced;
+        } else {
+            steps.addLast(start, end, depth, times);
+        }
+    }
+
+    /**
+     * Restores the order of the steps produced by the delivery, depth-first ones were added in front in reverse.
+     */
+    private void schedule() {
+        if (produced > 1) {
+            steps.reverseFirst(produced);
+        }
+        produced = 0;
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip) {
+        send(from, gossip, 1);
+    }
+
+    /**
+     * Spreads a batch together: every gossiper handles all the gossips that reach her at once, as a vector.
+     * <p>
+     * Order: a gossiper handles the batch after all of her talkers have, gossipers that don't depend on each other
+     * go in the topological order of the network. A target first handles her own gossips in the order of the batch,
+     * then the vectors from her talkers in the order the talkers handled the batch, each with one
+     * {@link Gossiper#getGossipMessages(Gossip[])} call, so censors and deduplicators filter a vector in one pass.
+     * The gossips a gossiper sends
+     * while handling the vector go to every listener as one vector, in the order they were sent,
+     * and her tiredness is checked once, after the vector. NullGossipers don't spread gossips.
+     * The messages of different gossipers are interleaved unlike with separate {@link #propagate(Gossiper, Gossip)}.
+     * @param targets gossipers that receive the gossips first
+     * @param gossips gossips to deliver, as many as targets
+     */
+    @Override
+    public void propagateAll(List<Gossiper> targets, List<Gossip> gossips) {
+        if (targets.isEmpty()) {
+            return;
+        }
+
+        Map<Gossiper, List<Gossip>> bySource = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            bySource.computeIfAbsent(targets.get(i), target -> new ArrayList<>()).add(gossips.get(i));
+        }
+
+        Graph graph = targets.get(0).graph();
+        int bound = graph.idBound();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        List<Gossip[]>[] inboxes = new List[bound];
+        int[] talkers = new int[bound];
+        int[] depths = new int[bound];
+
+        // the reached gossipers and the amount of their talkers among them
+        boolean[] reached = new boolean[bound];
+        int[] found = new int[bound];
+        int count = 0;
+        for (Map.Entry<Gossiper, List<Gossip>> source : bySource.entrySet()) {
+            int id = source.getKey().id;
+            inboxes[id] = new ArrayList<>();
+            inboxes[id].add(source.getValue().toArray(new Gossip[0]));
+            reached[id] = true;
+            found[count++] = id;
+        }
+        for (int i = 0; i < count; i++) {
+            Gossiper gossiper = graph.node(found[i]);
+            if (gossiper instanceof NullGossiper) {
+                continue;
+            }
+
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int j = 0; j < graph.listenerCount(gossiper); j++) {
+                ++talkers[listeners[j]];
+                if (!reached[listeners[j]]) {
+                    reached[listeners[j]] = true;
+                    found[count++] = listeners[j];
+                }
+            }
+        }
+
+        PriorityQueue<Gossiper> ready = new PriorityQueue<>(Comparator.comparingInt(g -> g.order));
+        for (int i = 0; i < count; i++) {
+            if (talkers[found[i]] == 0) {
+                ready.add(graph.node(found[i]));
+            }
+        }
+
+        long size = 0;
+        int maxDepth = 0;
+        while (!ready.isEmpty()) {
+            Gossiper gossiper = ready.poll();
+            int id = gossiper.id;
+            List<Gossip[]> inbox = inboxes[id];
+            inboxes[id] = null;
+
+            Gossip[] sent = null;
+            if (inbox != null) {
+                outbox = new ArrayList<>();
+                sender = gossiper;
+                settling = false;
+                try {
+                    for (Gossip[] vector : inbox) {
+                        size += vector.length;
+                        gossiper.getGossipMessages(vector);
+                    }
+                    sent = outbox.toArray(new Gossip[0]);
+                } finally {
+                    outbox = null;
+                    sender = null;
+                }
+                maxDepth = Math.max(maxDepth, depths[id]);
+
+                if (settling) {
+                    gossiper.checkTired();
+                }
+            }
+
+            if (gossiper instanceof NullGossiper) {
+                continue;
+            }
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int j = 0; j < graph.listenerCount(gossiper); j++) {
+                int listener = listeners[j];
+                if (sent != null && sent.length > 0) {
+                    if (inboxes[listener] == null) {
+                        inboxes[listener] = new ArrayList<>();
+                    }
+                    inboxes[listener].add(sent);
+                    depths[listener] = Math.max(depths[listener], depths[id] + 1);
+                }
+                if (--talkers[listener] == 0) {
+                    ready.add(graph.node(listener));
+                }
+            }
+        }
+
+        Metrics metrics = targets.get(0).metrics();
+        if (metrics.isEnabled()) {
+            metrics.cascade(size, maxDepth);
+        }
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip, int times) {
+        if (outbox != null) {
+            if (from != sender) {
+                throw new IllegalStateException("gossips can only be sent while handling a delivery");
+            }
+            for (int i = 0; i < times; i++) {
+                outbox.add(gossip);
+            }
+            return;
+        }
+
+        if (plan == null || plan.node(node) != from) {
+            throw new IllegalStateException("gossips can only be sent while handling a delivery");
+        }
+
+        int start = plan.listenersStart(node);
+        int end = plan.listenersEnd(node);
+        if (start < end && times > 0) {
+            produce(start, end, depth + 1, times);
+        }
+    }
+
+    /**
+     * While a vector is handled the gossips are added to the outbox at once, else they are sent one by one.
+     */
+    @Override
+    public void sendAll(Gossiper from, Gossip[] gossips, int count) {
+        if (outbox == null) {
+            Propagator.super.sendAll(from, gossips, count);
+            return;
+        }
+        if (from != sender) {
+            throw new IllegalStateException("gossips can only be sent while handling a delivery");
+        }
+
+        outbox.addAll(Arrays.asList(gossips).subList(0, count));
+    }
+
+    @Override
+    public void settle(Gossiper gossiper) {
+        if (outbox != null) {
+            settling = true;
+            return;
+        }
+        if (depthFirst && produced == 0) {
+            // nothing was sent, so the check would be the next step anyway
+            gossiper.checkTired();
+            return;
+        }
+        produce(node, node + 1, depth, 0);
+    }
+}
@@ -0,0 +1,117 @@
+package ru.hse.javaprogramming;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Recovery lets tired gossipers rest: every gossiper has a token bucket of maxMoves moves
+ * that refills at a fixed rate, a gossip is handled only if there is a move in the bucket.
+ * <p>
+ * A bucket is one long per gossiper: the time it would be full again if it never overflowed
+ * (generic cell rate algorithm). It is refilled lazily when the gossiper receives a gossip,
+ * so there are no timers and no threads, however many gossipers the network has.
+ * The buckets aren't saved to snapshots, restored gossipers start rested.
+ * <p>
+ * Times are counted from the creation of the recovery, so they don't depend on the origin of the clock,
+ * and a full bucket refills in at most {@link #MAX_REFILL_NANOS}, so they never overflow.
+ */
+public final class Recovery {
+    /**
+     * The longest time an empty bucket takes to refill, about 146 years; slower rates refill faster than asked.
+     */
+    static final long MAX_REFILL_NANOS = 1L << 62;
+
+    /**
+     * Time one move takes to refill in nanoseconds.
+     */
+    private final long intervalNanos;
+
+    private final LongSupplier clock;
+
+    /**
+     * Clock value times are counted from.
+     */
+    private final long origin;
+
+    /**
+     * Constructor from the refill rate
+     * @param movesPerSecond moves every gossiper gets back per second
+     */
+    public Recovery(double movesPerSecond) {
+        this(movesPerSecond, System::nanoTime);
+    }
+
+    /**
+     * Constructor from the refill rate and a clock
+     * @param movesPerSecond moves every gossiper gets back per second
+     * @param clock time in nanoseconds
+     */
+    public Recovery(double movesPerSecond, LongSupplier clock) {
+        if (!(movesPerSecond > 0)) {
+            throw new IllegalArgumentException("recovery rate must be positive");
+        }
+
+        this.intervalNanos = Math.max(1, (long) Math.min(1e9 / movesPerSecond, MAX_REFILL_NANOS));
+        this.clock = clock;
+        this.origin = clock.getAsLong();
+    }
+
+    /**
+     * Takes a move from the bucket of the gossiper.
+     * Buckets are only changed by the deliveries to their gossiper, which never run in parallel.
+     * @param gossiper gossiper that receives a gossip
+     * @return false if the bucket is empty
+     */
+    boolean take(Gossiper gossiper) {
+        if (gossiper.maxMoves <= 0) {
+            return false;
+        }
+
+        long now = now();
+        long interval = interval(gossiper);
+        long full = Math.max(gossiper.rested, now);
+        if (movesUsed(full - now, interval) >= gossiper.maxMoves) {
+            return false;
+        }
+
+        // full - now <= (maxMoves - 1) * interval, so this is at most now + MAX_REFILL_NANOS
+        gossiper.rested = full + interval;
+        return true;
+    }
+
+    /**
+     * Moves left in the bucket of the gossiper
+     * @param gossiper gossiper in the network
+     * @return moves the gossiper may take right now
+     */
+    long available(Gossiper gossiper) {
+        if (gossiper.maxMoves <= 0) {
+            return 0;
+        }
+
+        long now = now();
+        long ahead = gossiper.rested > now ? gossiper.rested - now : 0;
+        return Math.max(0, gossiper.maxMoves - movesUsed(ahead, interval(gossiper)));
+    }
+
+    /**
+     * Time since the creation of the recovery, never negative.
+     */
+    private long now() {
+        return Math.max(0, clock.getAsLong() - origin);
+    }
+
+    /**
+     * Time one move of the gossiper takes to refill, shortened so that her whole bucket refills
+     * in {@link #MAX_REFILL_NANOS}.
+     */
+    private long interval(Gossiper gossiper) {
+        return Math.max(1, Math.min(intervalNanos, MAX_REFILL_NANOS / Math.max(1, gossiper.maxMoves)));
+    }
+
+    /**
+     * Moves missing from a bucket that is full after the time, rounded up.
+     */
+    private static long movesUsed(long ahead, long interval) {
+        return ahead / interval + (ahead % interval == 0 ? 0 : 1);
+    }
+}
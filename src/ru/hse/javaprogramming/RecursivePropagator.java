@@ -0,0 +1,64 @@
+package ru.hse.javaprogramming;
+
+/**
+ * RecursivePropagator calls the listeners directly, so the whole cascade runs on the call stack.
+ * Kept to compare the output of the other engines against.
+ */
+public class RecursivePropagator implements Propagator {
+    /**
+     * Deliveries and the longest chain of deliveries of the current cascade, see {@link Metrics}.
+     */
+    private long size;
+    private int depth;
+    private int maxDepth;
+
+    @Override
+    public void propagate(Gossiper target, Gossip gossip) {
+        size = 1;
+        depth = 0;
+        maxDepth = 0;
+
+        target.getGossipMessage(gossip);
+
+        Metrics metrics = target.metrics();
+        if (metrics.isEnabled()) {
+            metrics.cascade(size, maxDepth);
+        }
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip) {
+        Graph graph = from.graph();
+        int[] listeners = graph.listenerIds(from);
+        int count = graph.listenerCount(from);
+
+        maxDepth = Math.max(maxDepth, ++depth);
+        size += count;
+        for (int i = 0; i < count; i++) {
+            graph.node(listeners[i]).getGossipMessage(gossip);
+        }
+        --depth;
+    }
+
+    @Override
+    public void send(Gossiper from, Gossip gossip, int times) {
+        Graph graph = from.graph();
+        int[] listeners = graph.listenerIds(from);
+        int count = graph.listenerCount(from);
+
+        maxDepth = Math.max(maxDepth, ++depth);
+        size += (long) count * times;
+        for (int i = 0; i < count; i++) {
+            Gossiper listener = graph.node(listeners[i]);
+            for (int j = 0; j < times; j++) {
+                listener.getGossipMessage(gossip);
+            }
+        }
+        --depth;
+    }
+
+    @Override
+    public void settle(Gossiper gossiper) {
+        gossiper.checkTired();
+    }
+}
@@ -0,0 +1,59 @@
+package ru.hse.javaprogramming;
+
+/**
+ * RemoteGossiper stands for a gossiper of another {@link Shard} in the graph of this one.
+ * Local gossipers link to her as to any listener, she forwards every gossip she gets to the shard of the gossiper.
+ * She never gets tired and isn't listed among the gossipers of the shard.
+ */
+public class RemoteGossiper extends Gossiper {
+    private final Shard shard;
+    private final int owner;
+
+    /**
+     * Constructor from name and the shard owning the gossiper
+     * @param name name of the gossiper on the other shard
+     * @param shard shard of this gossiper
+     * @param owner index of the shard owning the gossiper
+     */
+    RemoteGossiper(String name, Shard shard, int owner) {
+        super(name, Integer.MAX_VALUE);
+        this.shard = shard;
+        this.owner = owner;
+    }
+
+    /**
+     * Forwards the gossip to the shard owning the gossiper.
+     */
+    @Override
+    public void getGossipMessage(Gossip gossip) {
+        doGossipAction(gossip);
+        propagator().settle(this);
+    }
+
+    @Override
+    public void doGossipAction(Gossip gossip) {
+        shard.forward(owner, getName(), gossip);
+    }
+
+    @Override
+    void checkTired() {
+    }
+
+    /**
+     * Every copy is forwarded, the rest of the cascade happens on the other shard and isn't estimated.
+     */
+    @Override
+    protected long acceptedCopies(Gossip gossip, long received) {
+        return received;
+    }
+
+    @Override
+    protected int minCopies(Gossip gossip) {
+        return 0;
+    }
+
+    @Override
+    protected int maxCopies(Gossip gossip) {
+        return 0;
+    }
+}
@@ -0,0 +1,841 @@
+package ru.hse.javaprogramming;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Shard is the part of a gossip network partitioned across several processes on one machine.
+ * <p>
+ * Every process runs one shard and owns the gossipers which names hash to it. A link to a gossiper of another shard
+ * goes to a {@link RemoteGossiper} standing for her, which forwards the gossips over a batched {@link ShardLink};
+ * the owning shard delivers every received batch at once with {@link Propagator#propagateAll(List, List)}.
+ * The network of a shard runs on one serial executor (see {@link Networks}) that never waits for other shards,
+ * and a shard stops reading gossips from a link while it has too many batches not delivered yet.
+ * <p>
+ * Commands typed into any shard work on the whole network: commands about a gossiper run on her shard
+ * and their output comes back, "gossips" merges the names of all the shards alphabetically.
+ * All the links go through shard 0, which checks them for cycles one at a time by searching the shards
+ * from the new listener towards the new spreader. Gossips arriving over links are printed by the receiving shard.
+ * <p>
+ * Run one process per shard, e.g. "java -jar gossipers_app.jar 5 --shard=1 --cluster=7000,7001 &lt; /dev/null"
+ * and "java -jar gossipers_app.jar 5 --shard=0 --cluster=7000,7001": a shard keeps serving the others
+ * after its input is over until it is stopped.
+ */
+public class Shard implements Closeable {
+    /**
+     * How long a command waits for the answer of another shard.
+     */
+    static final long CALL_TIMEOUT_SECONDS = 30;
+
+    /**
+     * A shard stops reading gossips from a link while it has this many batches from it not delivered.
+     */
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    /**
+     * How long a gossip forwarded to a full link waits before it's dropped, see {@link ShardLink#offer}.
+     */
+    private static final long FORWARD_TIMEOUT_SECONDS = 5;
+
+    /**
+     * The most gossips delivered together.
+     */
+    private static final int MAX_BATCH = 1 << 12;
+
+    private static final String NETWORK = "shard";
+
+    /**
+     * The answer of a shard to a request.
+     * @param output text printed by the command
+     * @param result values for the shard that asked
+     */
+    record Reply(String output, List<String> result) {
+    }
+
+    /**
+     * A request waiting for an answer.
+     * @param shard index of the shard that answers
+     * @param reply future of the answer
+     */
+    private record Call(int shard, CompletableFuture<Reply> reply) {
+    }
+
+    private final Gossipers gossipers;
+    private final int index;
+    private final int[] ports;
+
+    /**
+     * Sink of the commands typed into this shard. The network's sink can't be used for them: it is swapped
+     * while the requests of other shards run, see {@link #capture(Runnable)}.
+     */
+    private final OutputSink console;
+
+    /**
+     * Runs the network of the shard, and so every request about it.
+     */
+    private final Networks networks = new Networks();
+
+    /**
+     * Runs the cycle checks of shard 0 one at a time, apart from the network so it may wait for other shards.
+     */
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shard-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ServerSocket server;
+
+    /**
+     * Links to the other shards by index, null for this one.
+     */
+    private final ShardLink[] links;
+
+    /**
+     * Requests waiting for an answer by id.
+     */
+    private final Map<Long, Call> calls = new ConcurrentHashMap<>();
+    private final AtomicLong nextCall = new AtomicLong();
+
+    /**
+     * Gossips dropped by every link since it was full, see {@link #forward(int, String, Gossip)}.
+     */
+    private final AtomicLongArray dropped;
+
+    /**
+     * Gossipers of other shards that local gossipers link to, used only by the network's executor.
+     */
+    private final Map<String, RemoteGossiper> remotes = new HashMap<>();
+
+    private volatile boolean quit;
+    private volatile boolean closed;
+
+    /**
+     * Constructor that starts listening for the other shards.
+     * @param gossipers network of this shard, it must not be used directly anymore
+     * @param index index of this shard
+     * @param ports ports of all the shards on localhost by index
+     * @throws IOException if the port of this shard can't be bound
+     */
+    public Shard(Gossipers gossipers, int index, int[] ports) throws IOException {
+        if (index < 0 || index >= ports.length) {
+            throw new IllegalArgumentException("shard " + index + " isn't in the cluster of " + ports.length);
+        }
+
+        this.gossipers = gossipers;
+        this.index = index;
+        this.ports = ports.clone();
+        this.console = gossipers.out;
+        this.dropped = new AtomicLongArray(ports.length);
+        this.server = new ServerSocket(ports[index], 64, InetAddress.getLoopbackAddress());
+
+        gossipers.shard = this;
+        networks.add(NETWORK, gossipers);
+
+        links = new ShardLink[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            if (i != index) {
+                int peer = i;
+                links[i] = new ShardLink(index, ports[i], () -> failCalls(peer));
+            }
+        }
+
+        Thread acceptor = new Thread(this::accept, "shard-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Index of the shard owning a gossiper
+     * @param name gossiper name
+     * @return shard index
+     */
+    public int owner(String name) {
+        return Math.floorMod(name.hashCode(), ports.length);
+    }
+
+    /**
+     * Whether "quit" was typed into this shard
+     * @return true after quit
+     */
+    public boolean hasQuit() {
+        return quit;
+    }
+
+    /**
+     * Runs a command typed into this shard on the whole network, prints its output to the network's sink.
+     * Must not be called by the network's executor.
+     * @param cmd command name and its arguments
+     * @return false if the command is quit, else true
+     */
+    public boolean execute(List<String> cmd) {
+        OutputSink out = console;
+        if (cmd.isEmpty()) {
+            return true;
+        }
+
+        try {
+            switch (cmd.get(0)) {
+                case "create", "listeners", "estimate" -> print(join(run(owner(cmd.get(1)), cmd)));
+                case "message" -> {
+                    awaitLinks();
+                    print(join(run(owner(cmd.get(1)), cmd)));
+                }
+                case "messages" -> messages(cmd.subList(1, cmd.size()));
+                case "remove" -> remove(cmd.get(1));
+                case "link" -> print(join(call(0, List.of("link", cmd.get(1), cmd.get(2)))));
+                case "unlink" -> unlink(cmd.get(1), cmd.get(2));
+                case "gossips" -> gossips();
+                case "linkall", "linkfile", "save", "load" ->
+                        out.println("Error: command \"" + cmd.get(0) + "\" isn't supported by a sharded network.");
+                case "quit" -> {
+                    quit = true;
+                    GossipsMain.quit(out);
+                    return false;
+                }
+                default -> print(join(run(index, cmd)));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            out.println("Error: incorrect arguments for command \"" + cmd.get(0) + "\".");
+        } catch (IllegalStateException e) {
+            out.println("Error: " + e.getMessage() + ".");
+        }
+
+        return true;
+    }
+
+    private void messages(List<String> tokens) {
+        if (tokens.isEmpty() || tokens.size() % 2 != 0) {
+            console.println("Error: incorrect arguments for command \"messages\".");
+            return;
+        }
+
+        List<List<String>> byShard = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) {
+            byShard.add(new ArrayList<>(List.of("messages")));
+        }
+        for (int i = 0; i < tokens.size(); i += 2) {
+            List<String> command = byShard.get(owner(tokens.get(i)));
+            command.add(tokens.get(i));
+            command.add(tokens.get(i + 1));
+        }
+
+        awaitLinks();
+        for (int i = 0; i < ports.length; i++) {
+            if (byShard.get(i).size() > 1) {
+                print(join(run(i, byShard.get(i))));
+            }
+        }
+    }
+
+    private void remove(String name) {
+        print(join(run(owner(name), List.of("remove", name))));
+
+        List<CompletableFuture<Reply>> forgets = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) {
+            if (i != owner(name)) {
+                forgets.add(call(i, List.of("forget", name)));
+            }
+        }
+        for (CompletableFuture<Reply> forget : forgets) {
+            join(forget);
+        }
+    }
+
+    private void unlink(String talker, String listener) {
+        if (!exists(talker)) {
+            console.println("Error: name \"" + talker + "\" not found.");
+            return;
+        }
+        if (!exists(listener)) {
+            console.println("Error: name \"" + listener + "\" not found.");
+            return;
+        }
+
+        print(join(call(owner(talker), List.of("detach", talker, listener))));
+    }
+
+    private boolean exists(String name) {
+        return !join(call(owner(name), List.of("type", name))).result().isEmpty();
+    }
+
+    /**
+     * Merges the alphabetical names of all the shards.
+     */
+    private void gossips() {
+        List<CompletableFuture<Reply>> replies = new ArrayList<>();
+        for (int i = 0; i < ports.length; i++) {
+            replies.add(call(i, List.of("names")));
+        }
+
+        List<String> names = new ArrayList<>();
+        for (CompletableFuture<Reply> reply : replies) {
+            names.addAll(join(reply).result());
+        }
+        Collections.sort(names);
+
+        for (String name : names) {
+            console.println(name);
+        }
+    }
+
+    /**
+     * Waits until every link has room for the gossips of a new message.
+     */
+    private void awaitLinks() {
+        for (int i = 0; i < links.length; i++) {
+            try {
+                if (links[i] != null && !links[i].awaitCapacity(TimeUnit.SECONDS.toMillis(CALL_TIMEOUT_SECONDS))) {
+                    throw new IllegalStateException("shard " + i + " doesn't accept gossips");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted");
+            }
+        }
+    }
+
+    private void print(Reply reply) {
+        console.print(reply.output());
+    }
+
+    private CompletableFuture<Reply> run(int shard, List<String> cmd) {
+        List<String> request = new ArrayList<>(cmd.size() + 1);
+        request.add("run");
+        request.addAll(cmd);
+        return call(shard, request);
+    }
+
+    /**
+     * Sends a request to a shard, to this one too.
+     * @param shard shard index
+     * @param request request name and its arguments
+     * @return future of the answer, fails if the shard doesn't answer in time
+     */
+    private CompletableFuture<Reply> call(int shard, List<String> request) {
+        if (shard == index) {
+            return handle(request);
+        }
+
+        long id = nextCall.incrementAndGet();
+        CompletableFuture<Reply> reply = new CompletableFuture<>();
+        calls.put(id, new Call(shard, reply));
+        links[shard].send(new ShardLink.Frame(ShardLink.CALL, id, List.copyOf(request)));
+
+        return reply.orTimeout(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS).handle((answer, e) -> {
+            calls.remove(id);
+            if (e instanceof TimeoutException) {
+                throw new IllegalStateException("shard " + shard + " doesn't answer");
+            }
+            if (e != null) {
+                throw e instanceof IllegalStateException failure ? failure : new IllegalStateException(e.getMessage(), e);
+            }
+            return answer;
+        });
+    }
+
+    /**
+     * Fails the requests to a shard, called when a connection to it is lost: their answers won't come.
+     * @param shard shard index
+     */
+    private void failCalls(int shard) {
+        for (Call call : calls.values()) {
+            if (call.shard() == shard) {
+                call.reply().completeExceptionally(new IllegalStateException("connection to shard " + shard + " was lost"));
+            }
+        }
+    }
+
+    private static Reply join(CompletableFuture<Reply> reply) {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Runs a request: cycle checks on the coordinator, everything else on the network's executor.
+     */
+    private CompletableFuture<Reply> handle(List<String> request) {
+        if (request.get(0).equals("link")) {
+            return CompletableFuture.supplyAsync(() -> link(request.get(1), request.get(2)), coordinator);
+        }
+
+        return networks.submit(NETWORK, g -> local(request));
+    }
+
+    /**
+     * Checks a link for cycles and adds it on the shard of the spreader, runs on shard 0 only.
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return output of the link
+     */
+    private Reply link(String talker, String listener) {
+        List<String> talkerType = join(call(owner(talker), List.of("type", talker))).result();
+        if (talkerType.isEmpty()) {
+            return new Reply("Error: name \"" + talker + "\" not found.\n", List.of());
+        }
+
+        List<String> listenerType = join(call(owner(listener), List.of("type", listener))).result();
+        if (listenerType.isEmpty()) {
+            return new Reply("Error: name \"" + listener + "\" not found.\n", List.of());
+        }
+
+        if (talker.equals(listener)) {
+            return new Reply("Error: can't link/unlink \"" + talker + "\" to themselves.\n", List.of());
+        }
+
+        // links with a NullGossiper are exempt, see TopologicalOrder
+        if (!talkerType.get(0).equals("null") && !listenerType.get(0).equals("null") && reaches(listener, talker)) {
+            return new Reply("Error: making \"" + listener + "\" a listener of \"" + talker
+                    + "\" will cause an infinite cycle\n", List.of());
+        }
+
+        return join(call(owner(talker), List.of("attach", talker, listener)));
+    }
+
+    /**
+     * Searches the shards breadth-first, every round asks each shard about the gossipers reached on it.
+     * @param from gossiper the search starts at
+     * @param target gossiper to find
+     * @return true if the target is reached by gossipers that spread gossips
+     */
+    private boolean reaches(String from, String target) {
+        Set<String> visited = new HashSet<>();
+        visited.add(from);
+        List<String> frontier = List.of(from);
+
+        while (!frontier.isEmpty()) {
+            List<List<String>> byShard = new ArrayList<>();
+            for (int i = 0; i < ports.length; i++) {
+                byShard.add(new ArrayList<>(List.of("reach", target)));
+            }
+            for (String name : frontier) {
+                byShard.get(owner(name)).add(name);
+            }
+
+            List<CompletableFuture<Reply>> replies = new ArrayList<>();
+            for (int i = 0; i < ports.length; i++) {
+                if (byShard.get(i).size() > 2) {
+                    replies.add(call(i, byShard.get(i)));
+                }
+            }
+
+            List<String> next = new ArrayList<>();
+            for (CompletableFuture<Reply> reply : replies) {
+                List<String> result = join(reply).result();
+                if (result.get(0).equals("found")) {
+                    return true;
+                }
+                for (String name : result.subList(1, result.size())) {
+                    if (visited.add(name)) {
+                        next.add(name);
+                    }
+                }
+            }
+            frontier = next;
+        }
+
+        return false;
+    }
+
+    /**
+     * Runs a request on the network's executor.
+     */
+    private Reply local(List<String> request) {
+        List<String> args = request.subList(1, request.size());
+
+        return switch (request.get(0)) {
+            case "run" -> {
+                String output = capture(() -> GossipsMain.execute(args, gossipers));
+                sweep();
+                yield new Reply(output, List.of());
+            }
+            case "type" -> {
+                Gossiper gossiper = gossipers.findByName(args.get(0));
+                if (gossiper == null || gossiper instanceof RemoteGossiper) {
+                    yield new Reply("", List.of());
+                }
+                yield new Reply("", List.of(gossiper instanceof NullGossiper ? "null" : "spreader"));
+            }
+            case "names" -> {
+                List<String> names = new ArrayList<>(gossipers.gossipersSet.size());
+                for (Gossiper gossiper : gossipers.gossipersSet) {
+                    names.add(gossiper.getName());
+                }
+                yield new Reply("", names);
+            }
+            case "reach" -> new Reply("", reach(args.get(0), args.subList(1, args.size())));
+            case "attach" -> new Reply(capture(() -> attach(args.get(0), args.get(1))), List.of());
+            case "detach" -> new Reply(capture(() -> detach(args.get(0), args.get(1))), List.of());
+            case "forget" -> {
+                RemoteGossiper remote = remotes.remove(args.get(0));
+                if (remote != null) {
+                    gossipers.graph.remove(remote);
+                    gossipers.propagator.forget(remote);
+                }
+                yield new Reply("", List.of());
+            }
+            default -> throw new IllegalArgumentException("unknown request \"" + request.get(0) + "\"");
+        };
+    }
+
+    /**
+     * Runs a part of a request printing to a buffer instead of the network's sink.
+     * @return printed text
+     */
+    private String capture(Runnable command) {
+        CollectingSink sink = new CollectingSink();
+        OutputSink previous = gossipers.setOut(sink);
+        try {
+            command.run();
+        } finally {
+            gossipers.setOut(previous);
+        }
+
+        StringBuilder output = new StringBuilder();
+        for (String line : sink.lines()) {
+            output.append(line).append('\n');
+        }
+        return output.toString();
+    }
+
+    /**
+     * Searches the local gossipers reachable from the given ones through links that aren't exempt from cycle checks.
+     * @param target gossiper to find
+     * @param names local gossipers to start at
+     * @return "found" if the target is reached, else "not found" and the gossipers of other shards reached
+     */
+    private List<String> reach(String target, List<String> names) {
+        Graph graph = gossipers.graph;
+        boolean[] seen = new boolean[graph.idBound()];
+        ArrayDeque<Gossiper> queue = new ArrayDeque<>();
+        List<String> result = new ArrayList<>();
+        result.add("not found");
+
+        for (String name : names) {
+            Gossiper gossiper = gossipers.findByName(name);
+            if (gossiper != null && !(gossiper instanceof NullGossiper) && !seen[gossiper.id]) {
+                seen[gossiper.id] = true;
+                queue.add(gossiper);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            Gossiper gossiper = queue.poll();
+            if (gossiper.getName().equals(target)) {
+                return List.of("found");
+            }
+
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int i = 0; i < graph.listenerCount(gossiper); i++) {
+                Gossiper listener = graph.node(listeners[i]);
+                if (seen[listener.id] || listener instanceof NullGossiper) {
+                    continue;
+                }
+                seen[listener.id] = true;
+
+                if (!(listener instanceof RemoteGossiper)) {
+                    queue.add(listener);
+                } else if (listener.getName().equals(target)) {
+                    return List.of("found");
+                } else {
+                    result.add(listener.getName());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void attach(String talkerName, String listenerName) {
+        Gossiper talker = gossipers.findByName(talkerName);
+        if (talker == null) {
+            gossipers.out.println("Error: name \"" + talkerName + "\" not found.");
+            return;
+        }
+
+        Gossiper listener = gossipers.findByName(listenerName);
+        if (listener == null && owner(listenerName) != index) {
+            RemoteGossiper remote = new RemoteGossiper(listenerName, this, owner(listenerName));
+            remote.network = gossipers;
+            gossipers.topology.add(remote);
+            gossipers.graph.add(remote);
+            remotes.put(listenerName, remote);
+            listener = remote;
+        }
+        if (listener == null) {
+            gossipers.out.println("Error: name \"" + listenerName + "\" not found.");
+            return;
+        }
+
+        talker.addListener(listener);
+        sweep();
+    }
+
+    private void detach(String talkerName, String listenerName) {
+        Gossiper talker = gossipers.findByName(talkerName);
+        Gossiper listener = gossipers.findByName(listenerName);
+        if (talker == null) {
+            gossipers.out.println("Error: name \"" + talkerName + "\" not found.");
+            return;
+        }
+        if (listener == null) {
+            // no local gossiper links to her
+            gossipers.out.println("Error: \"" + listenerName + "\" isn't a listener of \"" + talkerName + "\"");
+            return;
+        }
+
+        talker.removeListener(listener);
+        sweep();
+    }
+
+    /**
+     * Drops the gossipers of other shards nobody links to anymore.
+     */
+    private void sweep() {
+        remotes.values().removeIf(remote -> {
+            if (gossipers.graph.talkerCount(remote) > 0) {
+                return false;
+            }
+            gossipers.graph.remove(remote);
+            gossipers.propagator.forget(remote);
+            return true;
+        });
+    }
+
+    /**
+     * Gossipers of other shards that local gossipers link to, see {@link Gossipers#findByName(String)}.
+     * Must only be used by the network's executor.
+     * @param name gossiper name
+     * @return stand-in of the gossiper, or null if nobody here links to her
+     */
+    RemoteGossiper remote(String name) {
+        return remotes.get(name);
+    }
+
+    /**
+     * Sends a gossip to a gossiper of another shard. Waits while the link is full, and drops the gossip
+     * if it stays full for {@link #FORWARD_TIMEOUT_SECONDS}, so a cascade can't fill the memory with gossips
+     * for a shard that doesn't keep up. Drops are reported in the output of the cascade.
+     * @param shard index of the shard owning the gossiper
+     * @param name gossiper name
+     * @param gossip gossip to deliver
+     */
+    void forward(int shard, String name, Gossip gossip) {
+        ShardLink.Frame frame = new ShardLink.Frame(ShardLink.DELIVER, 0, List.of(name, gossip.text()));
+        boolean queued;
+        try {
+            queued = links[shard].offer(frame, TimeUnit.SECONDS.toMillis(FORWARD_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+
+        if (!queued) {
+            if (dropped.getAndIncrement(shard) == 0) {
+                gossipers.out.println("Error: shard " + shard + " doesn't accept gossips, they are dropped.");
+            }
+            return;
+        }
+
+        long lost;
+        if (dropped.get(shard) != 0 && (lost = dropped.getAndSet(shard, 0)) > 0) {
+            gossipers.out.println("Error: " + lost + " gossips to shard " + shard + " were dropped.");
+        }
+    }
+
+    /**
+     * Delivers a batch of gossips received from another shard at once.
+     */
+    private void deliver(List<ShardLink.Frame> batch) {
+        List<Gossiper> targets = new ArrayList<>(batch.size());
+        List<Gossip> gossips = new ArrayList<>(batch.size());
+        Gossip last = null;
+
+        for (ShardLink.Frame frame : batch) {
+            Gossiper target = gossipers.findByName(frame.args().get(0));
+            if (target == null || target instanceof RemoteGossiper) {
+                // removed while the gossip was on its way
+                continue;
+            }
+
+            // copies of one gossip come one after another, they share the wrapper like on one shard
+            String text = frame.args().get(1);
+            if (last == null || !last.text().equals(text)) {
+                last = new Gossip(text);
+            }
+            targets.add(target);
+            gossips.add(last);
+        }
+
+        gossipers.propagator.propagateAll(targets, gossips);
+        gossipers.out.flush();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread reader = new Thread(() -> read(socket), "shard-reader");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * Reads the frames of another shard: consecutive gossips become one batch, delivered before the next request.
+     */
+    private void read(Socket socket) {
+        Semaphore window = new Semaphore(MAX_PENDING_BATCHES);
+        int peer = -1;
+
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(),
+                1 << 16))) {
+            peer = in.readInt();
+            List<ShardLink.Frame> batch = new ArrayList<>();
+
+            while (true) {
+                ShardLink.Frame frame = ShardLink.read(in);
+
+                if (frame.kind() == ShardLink.DELIVER) {
+                    batch.add(frame);
+                    if (in.available() > 0 && batch.size() < MAX_BATCH) {
+                        continue;
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    List<ShardLink.Frame> gossips = batch;
+                    batch = new ArrayList<>();
+                    window.acquire();
+                    networks.submit(NETWORK, g -> {
+                        try {
+                            deliver(gossips);
+                        } finally {
+                            window.release();
+                        }
+                        return null;
+                    });
+                }
+
+                if (frame.kind() == ShardLink.CALL) {
+                    answer(peer, frame);
+                } else if (frame.kind() == ShardLink.REPLY || frame.kind() == ShardLink.FAILURE) {
+                    Call call = calls.get(frame.id());
+                    List<String> args = frame.args();
+                    if (call == null) {
+                        continue;
+                    }
+                    CompletableFuture<Reply> reply = call.reply();
+                    if (frame.kind() == ShardLink.REPLY) {
+                        reply.complete(new Reply(args.get(0), List.copyOf(args.subList(1, args.size()))));
+                    } else {
+                        reply.completeExceptionally(new IllegalStateException(args.get(0)));
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // the other shard has stopped
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (!closed) {
+                console.println("Error: link from another shard failed: " + e.getMessage() + ".");
+                console.flush();
+            }
+        }
+
+        if (peer >= 0 && peer < ports.length && links[peer] != null) {
+            // the other shard has stopped: the answers of the requests to it came this way,
+            // and the link to it may still look alive
+            failCalls(peer);
+            links[peer].reconnect();
+        }
+    }
+
+    private void answer(int peer, ShardLink.Frame frame) {
+        if (peer < 0 || peer >= links.length || links[peer] == null) {
+            return;
+        }
+
+        handle(frame.args()).whenComplete((reply, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                List<String> message = List.of(String.valueOf(cause.getMessage()));
+                links[peer].send(new ShardLink.Frame(ShardLink.FAILURE, frame.id(), message));
+                return;
+            }
+
+            List<String> args = new ArrayList<>(reply.result().size() + 1);
+            args.add(reply.output());
+            args.addAll(reply.result());
+            links[peer].send(new ShardLink.Frame(ShardLink.REPLY, frame.id(), args));
+        });
+    }
+
+    /**
+     * Waits until the process is stopped, the shard keeps serving the others meanwhile.
+     * @throws InterruptedException if interrupted
+     */
+    public void awaitClose() throws InterruptedException {
+        synchronized (this) {
+            while (!closed) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Stops listening and closes the links after the queued frames are sent.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            server.close();
+        } catch (IOException e) {
+            // nothing to do with a broken socket
+        }
+        for (ShardLink link : links) {
+            if (link != null) {
+                link.close();
+            }
+        }
+        coordinator.shutdown();
+        networks.close();
+        gossipers.shard = null;
+    }
+}
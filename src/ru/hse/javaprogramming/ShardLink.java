@@ -0,0 +1,312 @@
+package ru.hse.javaprogramming;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ShardLink sends frames from one {@link Shard} to another over a local socket.
+ * <p>
+ * Frames are queued without blocking, so gossipers may send to other shards while they handle a gossip.
+ * A writer thread takes everything queued at once and writes it as one batch, flushed with one socket write.
+ * The link connects lazily and reconnects if the other shard restarts, the frames of a failed batch are lost
+ * and the owner is told so it can fail the requests waiting for an answer. The owner also calls
+ * {@link #reconnect()} when it sees the other shard stop, so queued frames aren't written to a dead connection.
+ * Backpressure: when the other shard reads slowly, the socket fills, the writer waits and the queue grows;
+ * new messages wait in {@link #awaitCapacity(long)} until the queue is short again, and forwarded gossips
+ * wait in {@link #offer(Frame, long)}, which gives up if the queue stays full, so it never grows without bound.
+ */
+public class ShardLink implements Closeable {
+    /**
+     * Frame kinds: a gossip for a gossiper of the other shard, a request, the answer to a request
+     * and the error of a failed request.
+     */
+    static final byte DELIVER = 0;
+    static final byte CALL = 1;
+    static final byte REPLY = 2;
+    static final byte FAILURE = 3;
+
+    /**
+     * New messages wait while the link has this many frames not written.
+     */
+    static final int MAX_QUEUED_FRAMES = 1 << 16;
+
+    /**
+     * The most frames written with one flush.
+     */
+    private static final int MAX_BATCH_FRAMES = 1 << 12;
+
+    private static final long RECONNECT_MILLIS = 100;
+
+    /**
+     * One message between shards.
+     * @param kind {@link #DELIVER}, {@link #CALL}, {@link #REPLY} or {@link #FAILURE}
+     * @param id id of the request, 0 for deliveries
+     * @param args listener name and gossip text of a delivery, command of a request, output and result of a reply,
+     *             message of a failure
+     */
+    record Frame(byte kind, long id, List<String> args) {
+    }
+
+    /**
+     * Index of the shard the link starts at, sent first so the other shard knows where to answer.
+     */
+    private final int from;
+    private final int port;
+    private final Thread writer;
+
+    /**
+     * Called by the writer when a connection fails.
+     */
+    private final Runnable onFailure;
+
+    /**
+     * Frames not written yet, guarded by this.
+     */
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * The connection must be dropped before the next batch, guarded by this.
+     */
+    private boolean reconnect;
+
+    /**
+     * An offer gave up, the next ones give up at once until the queue is half empty. Guarded by this.
+     */
+    private boolean congested;
+
+    /**
+     * Constructor that starts the writer thread
+     * @param from index of the shard the link starts at
+     * @param port port of the other shard on localhost
+     * @param onFailure called by the writer thread when a connection fails, before it connects again
+     */
+    public ShardLink(int from, int port, Runnable onFailure) {
+        this.from = from;
+        this.port = port;
+        this.onFailure = onFailure;
+        this.writer = new Thread(this::run, "shard-link-" + port);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a frame, never waits.
+     * @param frame frame to send
+     */
+    public synchronized void send(Frame frame) {
+        if (closed) {
+            return;
+        }
+
+        queue.add(frame);
+        if (queue.size() == 1) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Queues a frame if the link has room for it, waiting for the room a while.
+     * Once an offer gives up, the following ones give up at once until the queue is half empty again.
+     * @param frame frame to send
+     * @param timeoutMillis how long to wait for room
+     * @return false if the frame isn't queued: the link is full or closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean offer(Frame frame, long timeoutMillis) throws InterruptedException {
+        if (congested && queue.size() >= MAX_QUEUED_FRAMES / 2) {
+            return false;
+        }
+        congested = false;
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (queue.size() >= MAX_QUEUED_FRAMES && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                congested = true;
+                return false;
+            }
+            wait(remaining);
+        }
+        if (closed) {
+            return false;
+        }
+
+        send(frame);
+        return true;
+    }
+
+    /**
+     * Waits until the link has room for new messages.
+     * @param timeoutMillis how long to wait
+     * @return false if the link is still full after the timeout or is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitCapacity(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (queue.size() >= MAX_QUEUED_FRAMES && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+
+        return !closed;
+    }
+
+    /**
+     * Drops the connection before the next batch and connects again, e.g. when the other shard is known
+     * to have stopped: a write to a dead connection may succeed and lose the frames.
+     */
+    public synchronized void reconnect() {
+        reconnect = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the link after the queued frames are written, waits for them a little.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        Frame[] batch = new Frame[MAX_BATCH_FRAMES];
+
+        while (true) {
+            Socket socket = connect();
+            if (socket == null) {
+                return;
+            }
+
+            try (socket) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                out.writeInt(from);
+                out.flush();
+
+                while (true) {
+                    int count = 0;
+                    synchronized (this) {
+                        while (queue.isEmpty() && !closed && !reconnect) {
+                            wait();
+                        }
+                        if (reconnect) {
+                            reconnect = false;
+                            break;
+                        }
+                        if (queue.isEmpty()) {
+                            return;
+                        }
+                        while (count < batch.length && !queue.isEmpty()) {
+                            batch[count++] = queue.poll();
+                        }
+                        notifyAll();
+                    }
+
+                    for (int i = 0; i < count; i++) {
+                        write(out, batch[i]);
+                        batch[i] = null;
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the other shard is gone, connect again
+                Arrays.fill(batch, null);
+                onFailure.run();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Connects to the other shard, retrying until it listens.
+     * @return connected socket, or null if the link is closed
+     */
+    private Socket connect() {
+        while (true) {
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+            }
+
+            try {
+                Socket socket = new Socket("localhost", port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a frame: kind, id, amount of args and every arg as length and UTF-8 bytes.
+     * @param out stream to write to
+     * @param frame frame to write
+     * @throws IOException if the stream fails
+     */
+    static void write(DataOutputStream out, Frame frame) throws IOException {
+        out.writeByte(frame.kind());
+        out.writeLong(frame.id());
+        out.writeInt(frame.args().size());
+        for (String arg : frame.args()) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a frame written by {@link #write(DataOutputStream, Frame)}.
+     * @param in stream to read from
+     * @return frame read
+     * @throws IOException if the stream fails or ends
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long id = in.readLong();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("corrupted frame");
+        }
+
+        List<String> args = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("corrupted frame");
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            args.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        return new Frame(kind, id, args);
+    }
+}
@@ -11,11 +11,11 @@ public class SimpleGossiper extends Gossiper {
 
     /**
      * Writes received messages and passes them without any changes.
-     * @param gossipMessage received message.
+     * @param gossip received gossip.
      */
     @Override
-    public void doGossipAction(String gossipMessage) {
-        printMessage(gossipMessage);
-        sendMessage(gossipMessage);
+    public void doGossipAction(Gossip gossip) {
+        printMessage(gossip);
+        sendMessage(gossip);
     }
 }
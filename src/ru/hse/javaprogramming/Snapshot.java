@@ -0,0 +1,202 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot saves the gossip network to a binary file and loads it back.
+ * Format (big-endian), version 2:
+ * magic "GSSP", version,
+ * amount of gossipers, for each: name, type, parameters, maxMoves, received messages, topological order, type state,
+ * amount of links, for each: index of the gossiper-spreader, index of the gossiper-listener.
+ * Version 1 is the same except spammers have no state; it is still read, see {@link SnapshotInput#version()}.
+ * Loading doesn't check links for cycles: the saved topological order proves there are none.
+ */
+public final class Snapshot {
+    private static final int MAGIC = 0x47535350;
+    /**
+     * Version written, versions from 1 to it are read.
+     */
+    static final int VERSION = 2;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Result of saving or loading
+     * @param gossipers amount of gossipers
+     * @param links amount of links
+     */
+    public record Stats(int gossipers, long links) {
+    }
+
+    /**
+     * Gossipers read from a snapshot and their links: indexes of the talker and the listener
+     * of every link one after another, see {@link Graph#linkAll(List, int[])}.
+     */
+    public record Contents(List<Gossiper> gossipers, int[] links) {
+    }
+
+    /**
+     * Writes the gossipers of a network and their links to a channel.
+     * @param network network to write
+     * @param channel channel to write to
+     * @return amounts of written gossipers and links
+     * @throws IOException if the channel fails
+     */
+    public static Stats write(Gossipers network, WritableByteChannel channel) throws IOException {
+        SnapshotOutput out = new SnapshotOutput(channel);
+        List<Gossiper> gossipers = new ArrayList<>(network.gossipersSet);
+        Graph graph = network.graph;
+        Map<Gossiper, Integer> indexes = new HashMap<>();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(gossipers.size());
+
+        long links = 0;
+        for (Gossiper gossiper : gossipers) {
+            indexes.put(gossiper, indexes.size());
+            links += graph.listenerCount(gossiper);
+
+            out.writeString(gossiper.getName());
+            out.writeString(gossiper.type);
+            out.writeInt(gossiper.params.size());
+            for (Map.Entry<String, String> param : gossiper.params.entrySet()) {
+                out.writeString(param.getKey());
+                out.writeString(param.getValue());
+            }
+            out.writeInt(gossiper.maxMoves);
+            out.writeInt(gossiper.currentMessageN.get());
+            out.writeInt(gossiper.order);
+            gossiper.writeState(out);
+        }
+
+        out.writeLong(links);
+        for (Gossiper gossiper : gossipers) {
+            int index = indexes.get(gossiper);
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int i = 0; i < graph.listenerCount(gossiper); i++) {
+                out.writeInt(index);
+                out.writeInt(indexes.get(graph.node(listeners[i])));
+            }
+        }
+
+        out.flush();
+        return new Stats(gossipers.size(), links);
+    }
+
+    /**
+     * Saves the network to a file, replacing the file. The snapshot is written to a temporary file next to it
+     * and moved over the file atomically, so a failed save keeps the previous snapshot.
+     * @param network network to save
+     * @param file file to write
+     * @return amounts of saved gossipers and links
+     * @throws IOException if the file can't be written
+     */
+    public static Stats save(Gossipers network, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Stats stats;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                stats = write(network, channel);
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return stats;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads gossipers with their links from a memory-mapped file.
+     * The gossipers don't belong to any network yet.
+     * @param network network that creates the gossipers by type
+     * @param file file to read
+     * @return gossipers in the saved order and their links
+     * @throws IOException if the file can't be read or is not a valid snapshot
+     */
+    public static Contents read(Gossipers network, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(network, new SnapshotInput(buffer));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("snapshot is truncated");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("snapshot is corrupted: " + e.getMessage());
+        }
+    }
+
+    private static Contents read(Gossipers network, SnapshotInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a snapshot");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported snapshot version " + version);
+        }
+        in.setVersion(version);
+
+        int count = in.readLength(1);
+        if (count > network.maxGossipers) {
+            throw new IOException("snapshot has more than " + network.maxGossipers + " gossipers");
+        }
+
+        List<Gossiper> gossipers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = in.readString();
+            String type = in.readString();
+            int paramCount = in.readLength(1);
+            Map<String, String> params = new LinkedHashMap<>();
+            for (int j = 0; j < paramCount; j++) {
+                params.put(in.readString(), in.readString());
+            }
+
+            Gossiper gossiper = network.newGossiper(name, type, params, in.readInt());
+            gossiper.currentMessageN.set(in.readInt());
+            gossiper.order = in.readInt();
+            gossiper.readState(in);
+            gossipers.add(gossiper);
+        }
+
+        long links = in.readLong();
+        if (links < 0 || links > in.remaining() / (2 * Integer.BYTES)) {
+            throw new IOException("snapshot is truncated");
+        }
+
+        int[] pairs = new int[(int) (links * 2)];
+        for (int i = 0; i < pairs.length; i += 2) {
+            int talkerIndex = in.readInt();
+            int listenerIndex = in.readInt();
+            if (talkerIndex < 0 || talkerIndex >= count || listenerIndex < 0 || listenerIndex >= count) {
+                throw new IOException("snapshot is corrupted");
+            }
+
+            Gossiper talker = gossipers.get(talkerIndex);
+            Gossiper listener = gossipers.get(listenerIndex);
+            if (!TopologicalOrder.isExempt(talker, listener) && talker.order >= listener.order) {
+                throw new IOException("snapshot is corrupted: links are out of order");
+            }
+
+            pairs[i] = talkerIndex;
+            pairs[i + 1] = listenerIndex;
+        }
+
+        return new Contents(gossipers, pairs);
+    }
+}
@@ -0,0 +1,121 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SnapshotInput reads values written by {@link SnapshotOutput} from a buffer, usually a memory-mapped file.
+ * Reading past the end throws {@link java.nio.BufferUnderflowException}.
+ */
+public class SnapshotInput {
+    private final ByteBuffer buffer;
+    private int version = Snapshot.VERSION;
+
+    /**
+     * Constructor from buffer
+     * @param buffer buffer positioned at the first value
+     */
+    public SnapshotInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Version of the snapshot being read, lets gossipers read the state of older versions
+     * @return snapshot version, the current one until the header is read
+     */
+    public int version() {
+        return version;
+    }
+
+    void setVersion(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Reads a boolean written as one byte
+     * @return value read
+     */
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+
+    /**
+     * Reads a 4-byte int
+     * @return value read
+     */
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads an 8-byte long
+     * @return value read
+     */
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    /**
+     * Reads an 8-byte double
+     * @return value read
+     */
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+
+    /**
+     * Reads a string written as its UTF-8 length and bytes
+     * @return value read
+     * @throws IOException if the length is wrong
+     */
+    public String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads an array written as its length and elements
+     * @return array read
+     * @throws IOException if the length is wrong
+     */
+    public byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[readLength(1)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads an array written as its length and elements
+     * @return array read
+     * @throws IOException if the length is wrong
+     */
+    public long[] readLongs() throws IOException {
+        long[] values = new long[readLength(Long.BYTES)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getLong();
+        }
+        return values;
+    }
+
+    /**
+     * Amount of bytes left
+     * @return bytes between the current position and the end
+     */
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Reads an array length and checks that the rest of the data can hold the array.
+     * @param elementSize size of an element in bytes
+     * @return length of the array
+     * @throws IOException if the length is wrong
+     */
+    public int readLength(int elementSize) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || (long) length * elementSize > buffer.remaining()) {
+            throw new IOException("snapshot is corrupted");
+        }
+        return length;
+    }
+}
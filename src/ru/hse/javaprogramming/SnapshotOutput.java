@@ -0,0 +1,119 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SnapshotOutput writes primitive values to a channel through a direct buffer.
+ */
+public class SnapshotOutput {
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+    /**
+     * Constructor from channel
+     * @param channel channel to write to, not closed by the output
+     */
+    public SnapshotOutput(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Makes room for n bytes in the buffer, writing the buffer out if needed.
+     */
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a boolean as one byte
+     * @param value value to write
+     * @throws IOException if the channel fails
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        ensure(1);
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    /**
+     * Writes an int as 4 bytes
+     * @param value value to write
+     * @throws IOException if the channel fails
+     */
+    public void writeInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a long as 8 bytes
+     * @param value value to write
+     * @throws IOException if the channel fails
+     */
+    public void writeLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes a double as 8 bytes
+     * @param value value to write
+     * @throws IOException if the channel fails
+     */
+    public void writeDouble(double value) throws IOException {
+        ensure(Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes.
+     * @param value string to write
+     * @throws IOException if the channel fails
+     */
+    public void writeString(String value) throws IOException {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes an array as its length and elements.
+     * @param bytes array to write
+     * @throws IOException if the channel fails
+     */
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeInt(bytes.length);
+        for (int written = 0; written < bytes.length; ) {
+            ensure(1);
+            int n = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, n);
+            written += n;
+        }
+    }
+
+    /**
+     * Writes an array as its length and elements.
+     * @param values array to write
+     * @throws IOException if the channel fails
+     */
+    public void writeLongs(long[] values) throws IOException {
+        writeInt(values.length);
+        for (long value : values) {
+            writeLong(value);
+        }
+    }
+
+    /**
+     * Writes everything buffered to the channel.
+     * @throws IOException if the channel fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,15 +1,88 @@
 package ru.hse.javaprogramming;
 
-import java.util.Random;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * SpammerGossiper writes received message and sends it from 2 to 5 times
+ * SpammerGossiper writes received message and sends it from 2 to 5 times.
+ * The amount of repeats is rolled once per message with a SplitMix64 generator,
+ * so a spammer with a seed repeats the same amounts in every run.
  */
 public class SpammerGossiper extends Gossiper {
-    private final Random rand = new Random();
+    /**
+     * Parameters of the spammer type.
+     */
+    static final Set<String> PARAMETERS = Set.of("min", "max", "seed", "batch");
+
+    /**
+     * The least and the greatest amount of repeats.
+     */
+    private final int min;
+    private final int max;
+
+    /**
+     * true = the repeats go to every listener as one multi-delivery; false = one send per repeat
+     */
+    private final boolean batch;
+
+    /**
+     * State of the SplitMix64 generator.
+     */
+    private long seed;
 
     public SpammerGossiper(String name, int maxMoves) {
+        this(name, maxMoves, 2, 5, ThreadLocalRandom.current().nextLong(), false);
+    }
+
+    /**
+     * Constructor from name, maxMoves, repeat range, seed and delivery mode
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param min the least amount of repeats
+     * @param max the greatest amount of repeats
+     * @param seed seed of the generator
+     * @param batch true = the repeats go to every listener as one multi-delivery, see {@link Propagator#send(Gossiper, Gossip, int)}
+     */
+    public SpammerGossiper(String name, int maxMoves, int min, int max, long seed, boolean batch) {
         super(name, maxMoves);
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("spam range must be 0 <= min <= max");
+        }
+
+        this.min = min;
+        this.max = max;
+        this.seed = seed;
+        this.batch = batch;
+    }
+
+    /**
+     * Creates a spammer from the parameters of the create command:
+     * min, max = range of repeats (2 and 5 by default),
+     * seed = seed of the generator (random by default),
+     * batch = true to send the repeats as one multi-delivery (false by default).
+     * @param name gossiper name
+     * @param maxMoves messages gossiper may receive until tired
+     * @param params type parameters
+     * @return new spammer
+     * @throws IllegalArgumentException if a parameter has a wrong value
+     */
+    public static SpammerGossiper create(String name, int maxMoves, Map<String, String> params) {
+        String batch = params.getOrDefault("batch", "false");
+        if (!batch.equals("true") && !batch.equals("false")) {
+            throw new IllegalArgumentException("batch must be true or false");
+        }
+
+        try {
+            return new SpammerGossiper(name, maxMoves,
+                    Integer.parseInt(params.getOrDefault("min", "2")),
+                    Integer.parseInt(params.getOrDefault("max", "5")),
+                    params.containsKey("seed") ? Long.parseLong(params.get("seed")) : ThreadLocalRandom.current().nextLong(),
+                    batch.equals("true"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("wrong number: " + e.getMessage());
+        }
     }
 
     /**
@@ -19,19 +92,56 @@ public class SpammerGossiper extends Gossiper {
      * @return random integer in range [min; max]
      */
     private int randInt(int min, int max) {
-        return rand.nextInt((max - min) + 1) + min;
+        seed += 0x9E3779B97F4A7C15L;
+        long z = seed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+
+        return min + (int) Long.remainderUnsigned(z, (long) max - min + 1);
     }
 
     /**
-     * Prints received message and spreads it 2 to 5 times.
-     * @param gossipMessage received message
+     * Prints received message and spreads it min to max times.
+     * @param gossip received gossip
      */
     @Override
-    public void doGossipAction(String gossipMessage) {
-        printMessage(gossipMessage);
+    public void doGossipAction(Gossip gossip) {
+        printMessage(gossip);
+
+        int repeats = randInt(min, max);
+        if (batch) {
+            sendMessage(gossip, repeats);
+            return;
+        }
 
-        for (int i = 0; i < randInt(2, 5); i++) {
-            sendMessage(gossipMessage);
+        for (int i = 0; i < repeats; i++) {
+            sendMessage(gossip);
+        }
+    }
+
+    @Override
+    protected int minCopies(Gossip gossip) {
+        return min;
+    }
+
+    @Override
+    protected int maxCopies(Gossip gossip) {
+        return max;
+    }
+
+    @Override
+    protected void writeState(SnapshotOutput out) throws IOException {
+        out.writeLong(seed);
+    }
+
+    /**
+     * Snapshots of version 1 have no spammer state, the seed from the parameters is kept then.
+     */
+    @Override
+    protected void readState(SnapshotInput in) throws IOException {
+        if (in.version() >= 2) {
+            seed = in.readLong();
         }
     }
 }
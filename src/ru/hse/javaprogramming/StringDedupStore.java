@@ -0,0 +1,45 @@
+package ru.hse.javaprogramming;
+
+import java.io.IOException;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringDedupStore keeps the messages themselves, it never makes mistakes and never forgets.
+ */
+public class StringDedupStore implements DedupStore {
+    private final Set<String> gossipMessages = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean add(Gossip gossip) {
+        return gossipMessages.add(gossip.text());
+    }
+
+    @Override
+    public boolean contains(Gossip gossip) {
+        return gossipMessages.contains(gossip.text());
+    }
+
+    @Override
+    public long size() {
+        return gossipMessages.size();
+    }
+
+    @Override
+    public void write(SnapshotOutput out) throws IOException {
+        String[] messages = gossipMessages.toArray(new String[0]);
+        out.writeInt(messages.length);
+        for (String message : messages) {
+            out.writeString(message);
+        }
+    }
+
+    @Override
+    public void read(SnapshotInput in) throws IOException {
+        int count = in.readLength(Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            gossipMessages.add(in.readString());
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package ru.hse.javaprogramming;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * TopologicalOrder keeps every gossiper-spreader before her listeners, so a new link only needs
+ * to look at the gossipers between the two ends in the order (Pearce-Kelly algorithm).
+ * Links with a NullGossiper on either end are exempt: a NullGossiper never spreads gossips, so she can't make a cycle.
+ */
+public class TopologicalOrder {
+    /**
+     * Links of the gossipers being ordered.
+     */
+    private final Graph graph;
+
+    /**
+     * Order given to the next new gossiper.
+     */
+    private int nextOrder = 0;
+
+    /**
+     * Marks the gossipers visited by the current search.
+     */
+    private int epoch = 0;
+
+    private final Deque<Gossiper> stack = new ArrayDeque<>();
+    private final List<Gossiper> forward = new ArrayList<>();
+    private final List<Gossiper> backward = new ArrayList<>();
+
+    /**
+     * Constructor from the graph of links
+     * @param graph links of the gossipers being ordered
+     */
+    public TopologicalOrder(Graph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Puts a new gossiper at the end of the order.
+     * @param gossiper new gossiper without links
+     */
+    public void add(Gossiper gossiper) {
+        gossiper.order = nextOrder++;
+    }
+
+    /**
+     * Puts a gossiper at a known place, e.g. loaded from a snapshot.
+     * @param gossiper gossiper which order is already set
+     */
+    public void restore(Gossiper gossiper) {
+        nextOrder = Math.max(nextOrder, gossiper.order + 1);
+    }
+
+    /**
+     * Check if the link is exempt from cycle checks
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return true if either of them is a NullGossiper
+     */
+    static boolean isExempt(Gossiper talker, Gossiper listener) {
+        return talker instanceof NullGossiper || listener instanceof NullGossiper;
+    }
+
+    /**
+     * Restores the order for a new link, if the link doesn't make a cycle.
+     * The link itself is not added.
+     * @param talker gossiper-spreader
+     * @param listener gossiper-listener
+     * @return false if the link would make a cycle, else true
+     */
+    public boolean addLink(Gossiper talker, Gossiper listener) {
+        if (isExempt(talker, listener) || talker.order < listener.order) {
+            return true;
+        }
+
+        ++epoch;
+        if (!searchForward(listener, talker.order, talker)) {
+            return false;
+        }
+        searchBackward(talker, listener.order);
+        reorder();
+
+        return true;
+    }
+
+    /**
+     * Finds the links of a batch that would make cycles together with the links of the graph,
+     * with one search of the strongly connected components (Tarjan) for the whole batch.
+     * Every link of the batch inside a component is refused, so the rest of the batch is acyclic with the graph.
+     * The graph is not changed; call {@link #rebuild()} after adding the accepted links.
+     * @param talkers gossipers-spreaders of the batch
+     * @param listeners gossipers-listeners of the batch, listeners[i] listens to talkers[i]
+     * @param count size of the batch
+     * @return true for the refused links
+     */
+    public boolean[] findCycles(Gossiper[] talkers, Gossiper[] listeners, int count) {
+        int bound = graph.idBound();
+
+        // links of the batch grouped by talker id
+        int[] batchStart = new int[bound + 1];
+        for (int i = 0; i < count; i++) {
+            if (!isExempt(talkers[i], listeners[i])) {
+                ++batchStart[talkers[i].id + 1];
+            }
+        }
+        for (int id = 0; id < bound; id++) {
+            batchStart[id + 1] += batchStart[id];
+        }
+        int[] batchListeners = new int[batchStart[bound]];
+        int[] filled = Arrays.copyOf(batchStart, bound);
+        for (int i = 0; i < count; i++) {
+            if (!isExempt(talkers[i], listeners[i])) {
+                batchListeners[filled[talkers[i].id]++] = listeners[i].id;
+            }
+        }
+
+        int[] index = new int[bound];
+        int[] low = new int[bound];
+        int[] component = new int[bound];
+        int[] next = new int[bound];
+        int[] calls = new int[bound];
+        int[] visited = new int[bound];
+        int visitedCount = 0;
+        int counter = 0;
+        int components = 0;
+
+        for (int i = 0; i < count; i++) {
+            int root = talkers[i].id;
+            if (isExempt(talkers[i], listeners[i]) || index[root] != 0) {
+                continue;
+            }
+
+            int depth = 0;
+            calls[depth++] = root;
+            index[root] = low[root] = ++counter;
+            visited[visitedCount++] = root;
+
+            while (depth > 0) {
+                int id = calls[depth - 1];
+                Gossiper gossiper = graph.node(id);
+                int own = graph.listenerCount(gossiper);
+                int edges = own + batchStart[id + 1] - batchStart[id];
+
+                if (next[id] < edges) {
+                    int edge = next[id]++;
+                    int listener = edge < own
+                            ? graph.listenerIds(gossiper)[edge]
+                            : batchListeners[batchStart[id] + edge - own];
+                    if (graph.node(listener) instanceof NullGossiper) {
+                        continue;
+                    }
+
+                    if (index[listener] == 0) {
+                        index[listener] = low[listener] = ++counter;
+                        visited[visitedCount++] = listener;
+                        calls[depth++] = listener;
+                    } else if (component[listener] == 0) {
+                        low[id] = Math.min(low[id], index[listener]);
+                    }
+                    continue;
+                }
+
+                --depth;
+                if (depth > 0) {
+                    int caller = calls[depth - 1];
+                    low[caller] = Math.min(low[caller], low[id]);
+                }
+                if (low[id] == index[id]) {
+                    // the visited gossipers without a component from id on make the component of id
+                    ++components;
+                    int member;
+                    do {
+                        member = visited[--visitedCount];
+                        component[member] = components;
+                    } while (member != id);
+                }
+            }
+        }
+
+        boolean[] cyclic = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            cyclic[i] = !isExempt(talkers[i], listeners[i]) && component[talkers[i].id] == component[listeners[i].id];
+        }
+        return cyclic;
+    }
+
+    /**
+     * Orders all the gossipers of the graph from scratch (Kahn's algorithm), e.g. after links were added in bulk.
+     * @throws IllegalStateException if the graph has a cycle
+     */
+    public void rebuild() {
+        int bound = graph.idBound();
+        int[] talkerCount = new int[bound];
+
+        for (int id = 0; id < bound; id++) {
+            Gossiper gossiper = graph.node(id);
+            if (gossiper == null || gossiper instanceof NullGossiper) {
+                continue;
+            }
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int i = 0; i < graph.listenerCount(gossiper); i++) {
+                if (!(graph.node(listeners[i]) instanceof NullGossiper)) {
+                    ++talkerCount[listeners[i]];
+                }
+            }
+        }
+
+        int[] queue = new int[bound];
+        int head = 0;
+        int tail = 0;
+        int nodes = 0;
+        for (int id = 0; id < bound; id++) {
+            if (graph.node(id) != null) {
+                ++nodes;
+                if (talkerCount[id] == 0) {
+                    queue[tail++] = id;
+                }
+            }
+        }
+
+        int order = 0;
+        while (head < tail) {
+            Gossiper gossiper = graph.node(queue[head++]);
+            gossiper.order = order++;
+            if (gossiper instanceof NullGossiper) {
+                continue;
+            }
+
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int i = 0; i < graph.listenerCount(gossiper); i++) {
+                int listener = listeners[i];
+                if (!(graph.node(listener) instanceof NullGossiper) && --talkerCount[listener] == 0) {
+                    queue[tail++] = listener;
+                }
+            }
+        }
+
+        if (order != nodes) {
+            throw new IllegalStateException("the graph has a cycle");
+        }
+        nextOrder = order;
+    }
+
+    /**
+     * Collects non-null gossipers reachable from the start that are placed before upperBound.
+     * @return false if the target was reached, which means a cycle
+     */
+    private boolean searchForward(Gossiper start, int upperBound, Gossiper target) {
+        forward.clear();
+        stack.clear();
+        start.mark = epoch;
+        stack.push(start);
+
+        while (!stack.isEmpty()) {
+            Gossiper gossiper = stack.pop();
+            forward.add(gossiper);
+
+            int[] listeners = graph.listenerIds(gossiper);
+            for (int i = 0; i < graph.listenerCount(gossiper); i++) {
+                Gossiper listener = graph.node(listeners[i]);
+                if (listener == target) {
+                    stack.clear();
+                    return false;
+                }
+
+                if (listener.mark != epoch && listener.order < upperBound && !(listener instanceof NullGossiper)) {
+                    listener.mark = epoch;
+                    stack.push(listener);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Collects non-null gossipers that reach the start and are placed after lowerBound.
+     */
+    private void searchBackward(Gossiper start, int lowerBound) {
+        backward.clear();
+        stack.clear();
+        start.mark = epoch;
+        stack.push(start);
+
+        while (!stack.isEmpty()) {
+            Gossiper gossiper = stack.pop();
+            backward.add(gossiper);
+
+            int[] talkers = graph.talkerIds(gossiper);
+            for (int i = 0; i < graph.talkerCount(gossiper); i++) {
+                Gossiper talker = graph.node(talkers[i]);
+                if (talker.mark != epoch && talker.order > lowerBound && !(talker instanceof NullGossiper)) {
+                    talker.mark = epoch;
+                    stack.push(talker);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives the found gossipers the same order values as before,
+     * but puts all the backward ones before all the forward ones.
+     */
+    private void reorder() {
+        Comparator<Gossiper> byOrder = Comparator.comparingInt(g -> g.order);
+        forward.sort(byOrder);
+        backward.sort(byOrder);
+
+        int[] orders = new int[forward.size() + backward.size()];
+        int n = 0;
+        for (Gossiper gossiper : backward) {
+            orders[n++] = gossiper.order;
+        }
+        for (Gossiper gossiper : forward) {
+            orders[n++] = gossiper.order;
+        }
+        Arrays.sort(orders);
+
+        n = 0;
+        for (Gossiper gossiper : backward) {
+            gossiper.order = orders[n++];
+        }
+        for (Gossiper gossiper : forward) {
+            gossiper.order = orders[n++];
+        }
+    }
+}